@@ -0,0 +1,141 @@
+package cz.avast.personalbudget.db;
+
+import android.test.AndroidTestCase;
+import android.test.RenamingDelegatingContext;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import cz.avast.personalbudget.entity.PeriodTotals;
+import cz.avast.personalbudget.entity.Transaction;
+import cz.avast.personalbudget.model.KindDictionary;
+import cz.avast.personalbudget.model.PackedGuid;
+
+/**
+ * Tests of {@link BudgetDataSource} on a real SQLite database
+ */
+public class BudgetDataSourceTest extends AndroidTestCase {
+
+    /**
+     * Order of the list: from the newest, then by GUID in the order of the database
+     */
+    private static final Comparator<Transaction> LIST_ORDER = new Comparator<Transaction>() {
+        @Override
+        public int compare(Transaction transaction, Transaction transaction2) {
+            if (transaction.getDate() != transaction2.getDate()) {
+                return transaction.getDate() > transaction2.getDate() ? -1 : 1;
+            }
+            return PackedGuid.compareGuids(transaction.getGuid(), transaction2.getGuid());
+        }
+    };
+
+    private BudgetDataSource dataSource;
+
+    private List<Transaction> transactions;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        RenamingDelegatingContext context = new RenamingDelegatingContext(getContext(), "test_");
+        context.deleteDatabase("budget.db");
+        KindDictionary kinds = new KindDictionary();
+        kinds.load(0, "food");
+        dataSource = new BudgetDataSource(context, kinds);
+        dataSource.open();
+
+        // Packed and text GUIDs mixed on the same dates
+        String[] guids = {"ffffffff-0000-0000-0000-000000000000", "zzz", "00000000-0000-0000-0000-000000000001", "A", "0000000-0000-0000-0000-0000000000000",
+                "80000000-0000-0000-0000-000000000000", "0F1E2D3C-4B5A-6978-8796-A5B4C3D2E1F0", "~"};
+        transactions = new ArrayList<Transaction>();
+        for (int i = 0; i < guids.length; i++) {
+            transactions.add(transaction(guids[i], i < 6 ? 2000 : 1000));
+        }
+        dataSource.applyChanges(Collections.singletonMap(0, "food"), transactions, Collections.<String>emptyList(), Collections.<String>emptyList(),
+                Collections.<PeriodTotals>emptyList());
+        Collections.sort(transactions, LIST_ORDER);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        dataSource.close();
+        super.tearDown();
+    }
+
+    /**
+     * Creates transaction with the given GUID and date.
+     *
+     * @param guid GUID
+     * @param date Date
+     * @return New transaction
+     */
+    private static Transaction transaction(String guid, long date) {
+        Transaction transaction = new Transaction();
+        transaction.setGuid(guid);
+        transaction.setValue(100);
+        transaction.setDate(date);
+        transaction.setKind("food", 0);
+        return transaction;
+    }
+
+    /**
+     * Returns GUIDs of the transactions.
+     *
+     * @param transactions Transactions
+     * @return GUIDs in the same order
+     */
+    private static List<String> guids(List<Transaction> transactions) {
+        List<String> result = new ArrayList<String>();
+        for (Transaction transaction : transactions) {
+            result.add(transaction.getGuid());
+        }
+        return result;
+    }
+
+    public void testDatabaseOrderMatchesListOrder() {
+        assertEquals(guids(transactions), guids(dataSource.loadNotDeletedTransactionsPage(null, 0)));
+    }
+
+    public void testPagingForwardVisitsEveryTransactionOnce() {
+        List<Transaction> loaded = new ArrayList<Transaction>();
+        Transaction after = null;
+        while (true) {
+            List<Transaction> page = dataSource.loadNotDeletedTransactionsPage(after, 3);
+            if (page.isEmpty()) {
+                break;
+            }
+            loaded.addAll(page);
+            after = page.get(page.size() - 1);
+        }
+        assertEquals(guids(transactions), guids(loaded));
+    }
+
+    public void testPagingBackwardVisitsEveryTransactionOnce() {
+        List<Transaction> loaded = new ArrayList<Transaction>();
+        Transaction before = transaction("~~~", 0);
+        while (true) {
+            List<Transaction> page = dataSource.loadNotDeletedTransactionsPageBefore(before, 3);
+            if (page.isEmpty()) {
+                break;
+            }
+            loaded.addAll(0, page);
+            before = page.get(0);
+        }
+        assertEquals(guids(transactions), guids(loaded));
+    }
+
+    public void testGuidsAreReadBackInTheirForm() {
+        List<String> guids = guids(transactions);
+        List<Transaction> loaded = dataSource.loadNotDeletedTransactions(guids);
+        Collections.sort(loaded, LIST_ORDER);
+        assertEquals(guids, guids(loaded));
+    }
+
+    public void testRangeIsHalfOpen() {
+        assertEquals(guids(transactions.subList(6, 8)), guids(dataSource.loadNotDeletedTransactionsInRange(1000, 2000)));
+        assertEquals(guids(transactions), guids(dataSource.loadNotDeletedTransactionsInRange(1000, 2001)));
+        assertTrue(dataSource.loadNotDeletedTransactionsInRange(1001, 2000).isEmpty());
+    }
+}
@@ -0,0 +1,159 @@
+package cz.avast.personalbudget.db;
+
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.test.RenamingDelegatingContext;
+import android.util.Log;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import cz.avast.personalbudget.entity.Transaction;
+import cz.avast.personalbudget.model.KindDictionary;
+
+/**
+ * Compares the version 6 table (text GUID primary key) with the current one (rowid table, GUIDs as 16 byte blobs in a unique index).
+ * It logs file size, time of inserting all transactions and time of saving again a part of them, and checks that saving again keeps the rowids.
+ */
+public class GuidStorageBenchmark extends AndroidTestCase {
+
+    /**
+     * String constant indicating class type
+     */
+    private static final String TAG = GuidStorageBenchmark.class.getSimpleName();
+
+    /**
+     * Number of stored transactions
+     */
+    private static final int COUNT = 20000;
+
+    /**
+     * Number of transactions saved again
+     */
+    private static final int UPDATED_COUNT = COUNT / 5;
+
+    private RenamingDelegatingContext context;
+
+    private List<Transaction> transactions;
+
+    private List<Transaction> updates;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        context = new RenamingDelegatingContext(getContext(), "benchmark_");
+        Random random = new Random(1);
+        transactions = new ArrayList<Transaction>(COUNT);
+        for (int i = 0; i < COUNT; i++) {
+            Transaction transaction = new Transaction();
+            transaction.setGuid(new UUID(random.nextLong(), random.nextLong()).toString());
+            transaction.setValue(random.nextInt(20000) - 10000);
+            transaction.setDate(1400000000000L + i * 60000L);
+            transaction.setKind("kind", 0);
+            transactions.add(transaction);
+        }
+        updates = new ArrayList<Transaction>(UPDATED_COUNT);
+        for (int i = 0; i < UPDATED_COUNT; i++) {
+            Transaction transaction = new Transaction(transactions.get(random.nextInt(COUNT)));
+            transaction.setValue(transaction.getValue() + 1);
+            transaction.setPending(true);
+            updates.add(transaction);
+        }
+    }
+
+    public void testTextPrimaryKey() {
+        context.deleteDatabase("text.db");
+        SQLiteDatabase db = context.openOrCreateDatabase("text.db", 0, null);
+        try {
+            db.execSQL("create table transactions(guid text primary key not null, value integer not null, date integer not null, kind_id integer not null, "
+                    + "deleted integer not null, pending integer not null)");
+            db.execSQL("create index index_transactions_deleted_date_guid on transactions(deleted, date desc, guid asc)");
+            db.execSQL("create index index_transactions_pending on transactions(pending, date)");
+            SQLiteStatement upsert = db.compileStatement("INSERT OR REPLACE INTO transactions (guid, value, date, kind_id, deleted, pending) VALUES (?, ?, ?, ?, ?, ?)");
+
+            long insertTime = writeText(db, upsert, transactions);
+            long updateTime = writeText(db, upsert, updates);
+            upsert.close();
+            log("text primary key", context.getDatabasePath("text.db"), insertTime, updateTime);
+        } finally {
+            db.close();
+        }
+    }
+
+    public void testBlobGuids() {
+        context.deleteDatabase("budget.db");
+        BudgetDataSource dataSource = new BudgetDataSource(context, new KindDictionary());
+        dataSource.open();
+        try {
+            long start = SystemClock.elapsedRealtime();
+            dataSource.saveTranstactions(transactions);
+            long insertTime = SystemClock.elapsedRealtime() - start;
+
+            SQLiteDatabase db = SQLiteDatabase.openDatabase(context.getDatabasePath("budget.db").getPath(), null, SQLiteDatabase.OPEN_READONLY);
+            long maxRowid = DatabaseUtils.longForQuery(db, "SELECT max(id) FROM transactions", null);
+            db.close();
+
+            start = SystemClock.elapsedRealtime();
+            dataSource.saveTranstactions(updates);
+            long updateTime = SystemClock.elapsedRealtime() - start;
+            // Closing checkpoints the write-ahead log into the file
+            dataSource.close();
+            log("blob GUIDs", context.getDatabasePath("budget.db"), insertTime, updateTime);
+
+            // Saving again updates the rows in place
+            db = SQLiteDatabase.openDatabase(context.getDatabasePath("budget.db").getPath(), null, SQLiteDatabase.OPEN_READONLY);
+            assertEquals(maxRowid, DatabaseUtils.longForQuery(db, "SELECT max(id) FROM transactions", null));
+            assertEquals(COUNT, DatabaseUtils.longForQuery(db, "SELECT count(*) FROM transactions", null));
+            db.close();
+        } finally {
+            dataSource.close();
+        }
+    }
+
+    /**
+     * Writes the transactions with text GUIDs in one database transaction.
+     *
+     * @param db           Database
+     * @param upsert       Compiled upsert statement
+     * @param transactions Transactions
+     * @return Time in milliseconds
+     */
+    private static long writeText(SQLiteDatabase db, SQLiteStatement upsert, List<Transaction> transactions) {
+        long start = SystemClock.elapsedRealtime();
+        db.beginTransaction();
+        try {
+            for (Transaction transaction : transactions) {
+                upsert.bindString(1, transaction.getGuid());
+                upsert.bindLong(2, transaction.getValue());
+                upsert.bindLong(3, transaction.getDate());
+                upsert.bindLong(4, transaction.getKindId());
+                upsert.bindLong(5, transaction.isDeleted() ? 1 : 0);
+                upsert.bindLong(6, transaction.isPending() ? 1 : 0);
+                upsert.executeInsert();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return SystemClock.elapsedRealtime() - start;
+    }
+
+    /**
+     * Logs results of one layout.
+     *
+     * @param layout     Name of the layout
+     * @param file       Database file
+     * @param insertTime Time of inserting all transactions in milliseconds
+     * @param updateTime Time of saving again a part of them in milliseconds
+     */
+    private static void log(String layout, File file, long insertTime, long updateTime) {
+        Log.i(TAG, layout + ": " + COUNT + " transactions, " + file.length() / 1024 + " kB, insert " + insertTime + " ms, saving " + UPDATED_COUNT
+                + " again " + updateTime + " ms");
+    }
+}
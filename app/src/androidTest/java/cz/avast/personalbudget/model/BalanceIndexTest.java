@@ -0,0 +1,62 @@
+package cz.avast.personalbudget.model;
+
+import junit.framework.TestCase;
+
+import java.util.Random;
+
+/**
+ * Tests of {@link BalanceIndex}
+ */
+public class BalanceIndexTest extends TestCase {
+
+    public void testEmptyIndex() {
+        BalanceIndex index = new BalanceIndex();
+        assertEquals(0, index.sumBeforeDay(0));
+        assertEquals(0, index.getTotal());
+    }
+
+    public void testSumsBeforeDay() {
+        BalanceIndex index = new BalanceIndex();
+        index.add(10, 100);
+        index.add(12, -30);
+        index.add(10, 5);
+
+        assertEquals(0, index.sumBeforeDay(10));
+        assertEquals(105, index.sumBeforeDay(11));
+        assertEquals(105, index.sumBeforeDay(12));
+        assertEquals(75, index.sumBeforeDay(13));
+        assertEquals(75, index.sumBeforeDay(100000));
+        assertEquals(75, index.getTotal());
+    }
+
+    public void testGrowsInBothDirections() {
+        Random random = new Random(13);
+        BalanceIndex index = new BalanceIndex();
+        long[] sums = new long[4000];
+        // Days before the epoch are valid, the index starts in the middle
+        int offset = 2000;
+        for (int step = 0; step < 5000; step++) {
+            int day = random.nextInt(sums.length);
+            long value = random.nextInt(2001) - 1000;
+            index.add(day - offset, value);
+            sums[day] += value;
+        }
+
+        long sum = 0;
+        for (int day = 0; day < sums.length; day++) {
+            assertEquals(sum, index.sumBeforeDay(day - offset));
+            sum += sums[day];
+        }
+        assertEquals(sum, index.getTotal());
+    }
+
+    public void testClear() {
+        BalanceIndex index = new BalanceIndex();
+        index.add(-5, 100);
+        index.clear();
+        assertEquals(0, index.sumBeforeDay(10));
+        index.add(1000, 7);
+        assertEquals(7, index.sumBeforeDay(1001));
+        assertEquals(0, index.sumBeforeDay(-5));
+    }
+}
@@ -0,0 +1,121 @@
+package cz.avast.personalbudget.model;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests of {@link ChangeSet}
+ */
+public class ChangeSetTest extends TestCase {
+
+    /**
+     * Applies the changes to the list the way an adapter does. Inserted rows are marked by "+", changed rows get "*" appended.
+     *
+     * @param list      Rows before the changes
+     * @param changeSet Changes
+     * @return Rows after the changes
+     */
+    private static List<String> apply(List<String> list, ChangeSet changeSet) {
+        List<String> result = new ArrayList<String>(list);
+        for (ChangeSet.Change change : changeSet.getChanges()) {
+            switch (change.getType()) {
+                case INSERTED:
+                    for (int i = 0; i < change.getCount(); i++) {
+                        result.add(change.getPosition(), "+");
+                    }
+                    break;
+                case REMOVED:
+                    result.subList(change.getPosition(), change.getPosition() + change.getCount()).clear();
+                    break;
+                case MOVED:
+                    result.add(change.getToPosition(), result.remove(change.getPosition()));
+                    break;
+                case CHANGED:
+                    for (int i = change.getPosition(); i < change.getPosition() + change.getCount(); i++) {
+                        result.set(i, result.get(i) + "*");
+                    }
+                    break;
+            }
+        }
+        return result;
+    }
+
+    public void testAdjacentInsertionsAreJoined() {
+        ChangeSet.Builder builder = new ChangeSet.Builder();
+        builder.inserted(3, 2);
+        builder.inserted(5, 1);
+        builder.inserted(3, 1);
+        ChangeSet changeSet = builder.build();
+
+        assertEquals(1, changeSet.getChanges().size());
+        assertEquals(4, changeSet.getChanges().get(0).getCount());
+        assertEquals(Arrays.asList("a", "b", "c", "+", "+", "+", "+"), apply(Arrays.asList("a", "b", "c"), changeSet));
+    }
+
+    public void testRemovalsFromTheEndAreJoined() {
+        ChangeSet.Builder builder = new ChangeSet.Builder();
+        builder.removed(4, 1);
+        builder.removed(3, 1);
+        builder.removed(1, 2);
+        ChangeSet changeSet = builder.build();
+
+        assertEquals(1, changeSet.getChanges().size());
+        assertEquals(Arrays.asList("a", "f"), apply(Arrays.asList("a", "b", "c", "d", "e", "f"), changeSet));
+    }
+
+    public void testMoveToTheSamePositionIsChange() {
+        ChangeSet.Builder builder = new ChangeSet.Builder();
+        builder.moved(1, 1);
+        builder.changed(1);
+        builder.changed(2);
+        ChangeSet changeSet = builder.build();
+
+        assertEquals(1, changeSet.getChanges().size());
+        assertEquals(ChangeSet.Type.CHANGED, changeSet.getChanges().get(0).getType());
+        assertFalse(changeSet.isStructural());
+        assertEquals(Arrays.asList("a", "b*", "c*"), apply(Arrays.asList("a", "b", "c"), changeSet));
+    }
+
+    public void testMixedChangesKeepOrder() {
+        ChangeSet.Builder builder = new ChangeSet.Builder();
+        builder.removed(2, 1);
+        builder.inserted(0, 1);
+        builder.moved(3, 1);
+        ChangeSet changeSet = builder.build();
+
+        assertTrue(changeSet.isStructural());
+        assertEquals(Arrays.asList("+", "d", "a", "b"), apply(Arrays.asList("a", "b", "c", "d"), changeSet));
+    }
+
+    public void testLastAffectedPosition() {
+        ChangeSet.Builder builder = new ChangeSet.Builder();
+        assertEquals(-1, builder.build().getLastAffectedPosition());
+
+        builder.changed(3);
+        builder.inserted(0, 2);
+        assertEquals(5, builder.build().getLastAffectedPosition());
+
+        builder.removed(5, 1);
+        assertEquals(4, builder.build().getLastAffectedPosition());
+
+        builder.changed(7);
+        builder.removed(2, 2);
+        assertEquals(5, builder.build().getLastAffectedPosition());
+    }
+
+    public void testBuildStartsAgain() {
+        ChangeSet.Builder builder = new ChangeSet.Builder();
+        builder.inserted(0, 1);
+        builder.balanceChanged();
+        ChangeSet first = builder.build();
+        ChangeSet second = builder.build();
+
+        assertTrue(first.isBalanceChanged());
+        assertFalse(first.isEmpty());
+        assertFalse(second.isBalanceChanged());
+        assertTrue(second.isEmpty());
+    }
+}
@@ -0,0 +1,118 @@
+package cz.avast.personalbudget.model;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests of {@link KindIndex}
+ */
+public class KindIndexTest extends TestCase {
+
+    private KindDictionary kinds;
+
+    private KindIndex index;
+
+    private int food;
+
+    private int rent;
+
+    private int salary;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        kinds = new KindDictionary();
+        food = kinds.getId("food");
+        rent = kinds.getId("rent");
+        salary = kinds.getId("salary");
+        index = new KindIndex(kinds);
+    }
+
+    /**
+     * Returns timestamp of the local date.
+     *
+     * @param year  Year
+     * @param month Month, 1 for January
+     * @param day   Day of the month
+     * @return Timestamp
+     */
+    private static long date(int year, int month, int day) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(year, month - 1, day, 12, 0, 0);
+        return calendar.getTimeInMillis();
+    }
+
+    public void testStatsKeepLimitsAfterRemoval() {
+        index.add(food, date(2014, 1, 5), -100);
+        index.add(food, date(2014, 1, 6), -500);
+        index.add(food, date(2014, 2, 1), -300);
+
+        KindIndex.KindStats stats = index.get(food);
+        assertEquals(3, stats.getCount());
+        assertEquals(-900, stats.getSum());
+        assertEquals(-500, stats.getMin());
+        assertEquals(-100, stats.getMax());
+
+        index.remove(food, date(2014, 1, 6), -500);
+        assertEquals(2, stats.getCount());
+        assertEquals(-300, stats.getMin());
+
+        index.remove(food, date(2014, 1, 5), -100);
+        index.remove(food, date(2014, 2, 1), -300);
+        assertNull(index.get(food));
+    }
+
+    public void testCopyIsDetached() {
+        index.add(rent, date(2014, 1, 1), -1000);
+        KindIndex.KindStats copy = index.get(rent).copy();
+        index.add(rent, date(2014, 2, 1), -2000);
+
+        assertEquals(1, copy.getCount());
+        assertEquals(-1000, copy.getMin());
+        assertEquals(2, index.get(rent).getCount());
+    }
+
+    public void testMonthTotalsOfRange() {
+        index.add(food, date(2013, 12, 31), -100);
+        index.add(food, date(2014, 1, 15), -200);
+        index.add(salary, date(2014, 2, 1), 5000);
+        index.add(food, date(2014, 3, 1), -400);
+
+        Map<Integer, KindIndex.KindTotals> totals = new HashMap<Integer, KindIndex.KindTotals>();
+        index.addMonthTotals(index.getMonthStart(date(2014, 1, 1)), index.getMonthStart(date(2014, 3, 1)), totals);
+
+        assertEquals(2, totals.size());
+        assertEquals(-200, totals.get(food).getSum());
+        assertEquals(1, totals.get(food).getCount());
+        assertEquals(5000, totals.get(salary).getSum());
+        assertEquals("salary", totals.get(salary).getKind());
+    }
+
+    public void testNextMonthStart() {
+        long january = index.getMonthStart(date(2014, 1, 20));
+        assertEquals(index.getMonthStart(date(2014, 2, 10)), index.getNextMonthStart(january));
+    }
+
+    public void testSelectTopByMagnitude() {
+        List<KindIndex.KindTotals> totals = new ArrayList<KindIndex.KindTotals>();
+        long[] sums = {-300, 100, 5000, -7000, 0};
+        for (int i = 0; i < sums.length; i++) {
+            KindIndex.KindTotals kindTotals = new KindIndex.KindTotals(i, "kind" + i);
+            kindTotals.add(sums[i], 1);
+            totals.add(kindTotals);
+        }
+
+        List<KindIndex.KindTotals> top = KindIndex.selectTop(totals, 3);
+        assertEquals(3, top.size());
+        assertEquals(-7000, top.get(0).getSum());
+        assertEquals(5000, top.get(1).getSum());
+        assertEquals(-300, top.get(2).getSum());
+        assertTrue(KindIndex.selectTop(totals, 0).isEmpty());
+    }
+}
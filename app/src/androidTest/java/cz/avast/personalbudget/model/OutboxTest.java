@@ -0,0 +1,121 @@
+package cz.avast.personalbudget.model;
+
+import junit.framework.TestCase;
+
+import java.util.Collections;
+import java.util.List;
+
+import cz.avast.personalbudget.entity.Transaction;
+
+/**
+ * Tests of {@link Outbox}
+ */
+public class OutboxTest extends TestCase {
+
+    /**
+     * Creates transaction with the given GUID.
+     *
+     * @param guid    Transaction GUID
+     * @param deleted Whether the transaction is deleted
+     * @return New transaction
+     */
+    private static Transaction transaction(String guid, boolean deleted) {
+        Transaction transaction = new Transaction();
+        transaction.setGuid(guid);
+        transaction.setValue(100);
+        transaction.setDate(1000);
+        transaction.setDeleted(deleted);
+        return transaction;
+    }
+
+    public void testLaterChangeReplacesEarlier() {
+        Outbox outbox = new Outbox();
+        Transaction first = transaction("a", false);
+        Transaction second = transaction("a", false);
+        assertTrue(outbox.put(first, false));
+        assertTrue(outbox.put(second, false));
+
+        assertEquals(1, outbox.size());
+        assertSame(second, outbox.getTransactions().get(0));
+    }
+
+    public void testDeletionCancelsOutUnsentCreation() {
+        Outbox outbox = new Outbox();
+        assertTrue(outbox.put(transaction("a", false), true));
+        assertTrue(outbox.put(transaction("a", false), false));
+
+        assertFalse(outbox.put(transaction("a", true), false));
+        assertEquals(0, outbox.size());
+    }
+
+    public void testDeletionOfKnownTransactionIsSent() {
+        Outbox outbox = new Outbox();
+        assertTrue(outbox.put(transaction("a", true), false));
+
+        assertEquals(1, outbox.size());
+        assertTrue(outbox.getTransactions().get(0).isDeleted());
+    }
+
+    public void testDeletionDoesNotCancelOutCreationBeingSent() {
+        Outbox outbox = new Outbox();
+        outbox.put(transaction("a", false), true);
+        outbox.markSent();
+
+        Transaction deleted = transaction("a", true);
+        assertTrue(outbox.put(deleted, false));
+        assertEquals(1, outbox.size());
+
+        // The backend got the creation, the deletion stays for the next sync
+        assertTrue(outbox.confirmSent().isEmpty());
+        List<Transaction> next = outbox.markSent();
+        assertEquals(1, next.size());
+        assertSame(deleted, next.get(0));
+    }
+
+    public void testConfirmKeepsChangesMadeDuringSync() {
+        Outbox outbox = new Outbox();
+        Transaction sent = transaction("a", false);
+        outbox.put(sent, true);
+        outbox.put(transaction("b", false), false);
+        outbox.markSent();
+
+        Transaction changed = transaction("a", false);
+        outbox.put(changed, false);
+        Transaction added = transaction("c", false);
+        outbox.put(added, true);
+
+        List<Transaction> confirmed = outbox.confirmSent();
+        assertEquals(1, confirmed.size());
+        assertEquals("b", confirmed.get(0).getGuid());
+        assertEquals(2, outbox.size());
+
+        // The backend knows "a" now, so its deletion is sent
+        assertTrue(outbox.put(transaction("a", true), false));
+        // "c" was not sent yet, so its deletion cancels out
+        assertFalse(outbox.put(transaction("c", true), false));
+        assertEquals(1, outbox.size());
+    }
+
+    public void testLoadedTransactionsAreNotTreatedAsCreated() {
+        Outbox outbox = new Outbox();
+        outbox.load(Collections.singletonList(transaction("a", false)));
+
+        assertTrue(outbox.put(transaction("a", true), false));
+        assertEquals(1, outbox.size());
+    }
+
+    public void testContainsChangesUnknownToBackend() {
+        Outbox outbox = new Outbox();
+        outbox.put(transaction("a", false), false);
+        outbox.put(transaction("b", false), false);
+        outbox.markSent();
+        assertTrue(outbox.contains("a"));
+
+        // Change made after the data were sent, the received version must not replace it
+        outbox.put(transaction("b", false), false);
+        outbox.confirmSent();
+        assertFalse(outbox.contains("a"));
+        assertTrue(outbox.contains("b"));
+        assertFalse(outbox.contains("c"));
+    }
+}
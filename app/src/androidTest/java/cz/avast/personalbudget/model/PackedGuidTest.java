@@ -0,0 +1,69 @@
+package cz.avast.personalbudget.model;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Tests of {@link PackedGuid}
+ */
+public class PackedGuidTest extends TestCase {
+
+    private static final String GUID = "0f1e2d3c-4b5a-6978-8796-a5b4c3d2e1f0";
+
+    public void testPackable() {
+        assertTrue(PackedGuid.isPackable(GUID));
+        assertFalse(PackedGuid.isPackable(null));
+        assertFalse(PackedGuid.isPackable("guid"));
+        assertFalse(PackedGuid.isPackable(GUID.toUpperCase()));
+        assertFalse(PackedGuid.isPackable(GUID.replace('-', '0')));
+        assertFalse(PackedGuid.isPackable(GUID + "0"));
+    }
+
+    public void testRoundTrip() {
+        assertEquals(GUID, PackedGuid.toString(PackedGuid.high(GUID), PackedGuid.low(GUID)));
+        assertEquals(GUID, PackedGuid.fromBytes(PackedGuid.toBytes(GUID)));
+
+        String max = "ffffffff-ffff-ffff-ffff-ffffffffffff";
+        assertEquals(-1L, PackedGuid.high(max));
+        assertEquals(max, PackedGuid.fromBytes(PackedGuid.toBytes(max)));
+    }
+
+    public void testBytesAreBigEndian() {
+        byte[] bytes = PackedGuid.toBytes(GUID);
+        assertEquals(PackedGuid.BYTES, bytes.length);
+        assertEquals(0x0f, bytes[0]);
+        assertEquals((byte) 0xf0, bytes[15]);
+    }
+
+    public void testPackedOrderIsTextOrder() {
+        String[] guids = {"00000000-0000-0000-0000-000000000000", "7fffffff-ffff-ffff-ffff-ffffffffffff", "80000000-0000-0000-0000-000000000000",
+                "80000000-0000-0000-8000-000000000000", "80000000-0000-0000-7fff-ffffffffffff", GUID, "ffffffff-ffff-ffff-ffff-ffffffffffff"};
+        for (String guid : guids) {
+            for (String guid2 : guids) {
+                int packed = PackedGuid.compare(PackedGuid.high(guid), PackedGuid.low(guid), PackedGuid.high(guid2), PackedGuid.low(guid2));
+                assertEquals(guid + " " + guid2, Integer.signum(guid.compareTo(guid2)), packed);
+            }
+        }
+    }
+
+    public void testTextGuidsGoBeforePackedOnes() {
+        List<String> guids = new ArrayList<String>(Arrays.asList("ffffffff-ffff-ffff-ffff-ffffffffffff", "zzz", GUID, "0", "0F1E2D3C-4B5A-6978-8796-A5B4C3D2E1F0",
+                "00000000-0000-0000-0000-000000000000"));
+        Collections.sort(guids, new Comparator<String>() {
+            @Override
+            public int compare(String guid, String guid2) {
+                return PackedGuid.compareGuids(guid, guid2);
+            }
+        });
+
+        assertEquals(Arrays.asList("0", "0F1E2D3C-4B5A-6978-8796-A5B4C3D2E1F0", "zzz", "00000000-0000-0000-0000-000000000000", GUID,
+                "ffffffff-ffff-ffff-ffff-ffffffffffff"), guids);
+        assertEquals(0, PackedGuid.compareGuids("zzz", "zzz"));
+        assertEquals(0, PackedGuid.compareGuids(GUID, GUID));
+    }
+}
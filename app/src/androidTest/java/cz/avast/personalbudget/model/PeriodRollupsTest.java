@@ -0,0 +1,134 @@
+package cz.avast.personalbudget.model;
+
+import junit.framework.TestCase;
+
+import java.util.Calendar;
+import java.util.List;
+import java.util.TimeZone;
+
+import cz.avast.personalbudget.entity.PeriodTotals;
+
+/**
+ * Tests of {@link PeriodRollups}
+ */
+public class PeriodRollupsTest extends TestCase {
+
+    /**
+     * Time zone of the tests, it differs from UTC so the period starts are not aligned to UTC days
+     */
+    private static final TimeZone PRAGUE = TimeZone.getTimeZone("Europe/Prague");
+
+    /**
+     * Returns timestamp of the local time in the time zone.
+     *
+     * @param timeZone Time zone
+     * @param year     Year
+     * @param month    Month, 1 for January
+     * @param day      Day of the month
+     * @param hour     Hour of the day
+     * @return Timestamp
+     */
+    private static long time(TimeZone timeZone, int year, int month, int day, int hour) {
+        Calendar calendar = Calendar.getInstance(timeZone);
+        calendar.clear();
+        calendar.set(year, month - 1, day, hour, 0, 0);
+        return calendar.getTimeInMillis();
+    }
+
+    public void testPeriodStartUsesGivenTimeZone() {
+        PeriodRollups rollups = new PeriodRollups(PRAGUE);
+        long date = time(PRAGUE, 2014, 3, 15, 0);
+
+        assertEquals(PRAGUE.getID(), rollups.getTimeZoneId());
+        assertEquals(date, rollups.getPeriodStart(PeriodTotals.Period.DAY, time(PRAGUE, 2014, 3, 15, 23)));
+        assertEquals(time(PRAGUE, 2014, 3, 1, 0), rollups.getPeriodStart(PeriodTotals.Period.MONTH, date));
+        assertEquals(time(PRAGUE, 2014, 1, 1, 0), rollups.getPeriodStart(PeriodTotals.Period.YEAR, date));
+    }
+
+    public void testNextDayAcrossDaylightSavingChange() {
+        PeriodRollups rollups = new PeriodRollups(PRAGUE);
+        long dayStart = time(PRAGUE, 2014, 3, 30, 0);
+
+        assertEquals(time(PRAGUE, 2014, 3, 31, 0), rollups.getNextPeriodStart(PeriodTotals.Period.DAY, dayStart));
+    }
+
+    public void testAddAndRemoveKeepTotals() {
+        PeriodRollups rollups = new PeriodRollups(PRAGUE);
+        rollups.add(time(PRAGUE, 2013, 12, 31, 23), -300);
+        rollups.add(time(PRAGUE, 2014, 1, 1, 1), 1000);
+        rollups.add(time(PRAGUE, 2014, 1, 1, 2), -200);
+
+        assertEquals(3, rollups.getCount(PeriodTotals.Period.YEAR));
+        assertEquals(500, rollups.getNet(PeriodTotals.Period.YEAR));
+        assertEquals(500, rollups.getNet(PeriodTotals.Period.DAY));
+        PeriodTotals day = rollups.get(PeriodTotals.Period.DAY, time(PRAGUE, 2014, 1, 1, 12));
+        assertEquals(1000, day.getIncome());
+        assertEquals(200, day.getExpense());
+        assertEquals(2, day.getCount());
+
+        rollups.remove(time(PRAGUE, 2013, 12, 31, 23), -300);
+        assertEquals(2, rollups.getCount(PeriodTotals.Period.YEAR));
+        assertEquals(0, rollups.get(PeriodTotals.Period.YEAR, time(PRAGUE, 2013, 6, 1, 0)).getCount());
+    }
+
+    public void testEmptiedBucketIsReportedAsChanged() {
+        PeriodRollups rollups = new PeriodRollups(PRAGUE);
+        long date = time(PRAGUE, 2014, 5, 5, 10);
+        rollups.add(date, 100);
+        assertEquals(PeriodTotals.Period.values().length, rollups.takeChanged().size());
+
+        rollups.remove(date, 100);
+        List<PeriodTotals> changed = rollups.takeChanged();
+        assertEquals(PeriodTotals.Period.values().length, changed.size());
+        for (PeriodTotals bucket : changed) {
+            assertEquals(0, bucket.getCount());
+        }
+        assertTrue(rollups.takeChanged().isEmpty());
+        assertTrue(rollups.takeAll().isEmpty());
+    }
+
+    public void testBucketsDependOnTimeZone() {
+        TimeZone utc = TimeZone.getTimeZone("UTC");
+        long date = time(PRAGUE, 2014, 1, 1, 0);
+        PeriodRollups local = new PeriodRollups(PRAGUE);
+        PeriodRollups other = new PeriodRollups(utc);
+
+        assertEquals(time(PRAGUE, 2014, 1, 1, 0), local.getPeriodStart(PeriodTotals.Period.YEAR, date));
+        assertEquals(time(utc, 2013, 1, 1, 0), other.getPeriodStart(PeriodTotals.Period.YEAR, date));
+    }
+
+    public void testNetBeforeDaySumsOlderTransactions() {
+        PeriodRollups rollups = new PeriodRollups(PRAGUE);
+        long[] dates = {time(PRAGUE, 2012, 7, 1, 12), time(PRAGUE, 2013, 12, 31, 23), time(PRAGUE, 2014, 2, 10, 8), time(PRAGUE, 2014, 3, 29, 22),
+                time(PRAGUE, 2014, 3, 30, 1), time(PRAGUE, 2014, 3, 31, 0), time(PRAGUE, 2014, 4, 2, 9)};
+        for (int i = 0; i < dates.length; i++) {
+            rollups.add(dates[i], 1 << i);
+        }
+
+        for (long date : dates) {
+            long dayStart = rollups.getPeriodStart(PeriodTotals.Period.DAY, date);
+            long expected = 0;
+            for (int i = 0; i < dates.length; i++) {
+                if (dates[i] < dayStart) {
+                    expected += 1 << i;
+                }
+            }
+            assertEquals(expected, rollups.getNetBefore(dayStart));
+        }
+    }
+
+    public void testNetBeforeDayOfLoadedBuckets() {
+        PeriodRollups rollups = new PeriodRollups(PRAGUE);
+        rollups.add(time(PRAGUE, 2014, 1, 1, 0), 100);
+        rollups.add(time(PRAGUE, 2014, 1, 2, 23), -30);
+        PeriodRollups loaded = new PeriodRollups(PRAGUE);
+        loaded.load(rollups.takeAll());
+
+        assertEquals(0, loaded.getNetBefore(time(PRAGUE, 2014, 1, 1, 0)));
+        assertEquals(100, loaded.getNetBefore(time(PRAGUE, 2014, 1, 2, 0)));
+        assertEquals(70, loaded.getNetBefore(time(PRAGUE, 2014, 1, 3, 0)));
+
+        loaded.remove(time(PRAGUE, 2014, 1, 1, 0), 100);
+        assertEquals(-30, loaded.getNetBefore(time(PRAGUE, 2014, 1, 3, 0)));
+    }
+}
@@ -0,0 +1,286 @@
+package cz.avast.personalbudget.model;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import cz.avast.personalbudget.entity.Transaction;
+
+/**
+ * Tests of {@link TransactionList}
+ */
+public class TransactionListTest extends TestCase {
+
+    /**
+     * Order of the list: from the newest, then by GUID in the order of the database
+     */
+    private static final Comparator<Transaction> LIST_ORDER = new Comparator<Transaction>() {
+        @Override
+        public int compare(Transaction transaction, Transaction transaction2) {
+            if (transaction.getDate() != transaction2.getDate()) {
+                return transaction.getDate() > transaction2.getDate() ? -1 : 1;
+            }
+            return PackedGuid.compareGuids(transaction.getGuid(), transaction2.getGuid());
+        }
+    };
+
+    private KindDictionary kinds;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        kinds = new KindDictionary();
+    }
+
+    /**
+     * Creates transaction with the given GUID and date.
+     *
+     * @param guid  GUID
+     * @param date  Date
+     * @param value Value
+     * @return New transaction
+     */
+    private Transaction transaction(String guid, long date, long value) {
+        Transaction transaction = new Transaction();
+        transaction.setGuid(guid);
+        transaction.setDate(date);
+        transaction.setValue(value);
+        transaction.setKind("kind" + (value % 3));
+        kinds.intern(transaction);
+        return transaction;
+    }
+
+    public void testMixedGuidsOnTheSameDate() {
+        List<Transaction> transactions = new ArrayList<Transaction>();
+        String[] guids = {"ffffffff-0000-0000-0000-000000000000", "zzz", "00000000-0000-0000-0000-000000000001", "A", "0000000-0000-0000-0000-0000000000000",
+                "80000000-0000-0000-0000-000000000000"};
+        for (int i = 0; i < guids.length; i++) {
+            transactions.add(transaction(guids[i], 1000, i));
+        }
+        Collections.sort(transactions, LIST_ORDER);
+
+        // Merging one by one relies on the order of the chunks
+        TransactionList list = new TransactionList(kinds);
+        for (Transaction transaction : transactions) {
+            list.merge(new int[0], Collections.singletonList(transaction));
+        }
+
+        assertEquals(transactions, list);
+        for (int i = 0; i < transactions.size(); i++) {
+            assertEquals(i, list.binarySearch(1000, transactions.get(i).getGuid()));
+        }
+        // Text GUIDs go before the packed ones, like in the database
+        assertEquals(-1, list.binarySearch(1000, "0"));
+        assertEquals(-(transactions.size() + 1), list.binarySearch(1000, "ffffffff-ffff-0000-0000-000000000000"));
+        assertEquals(-4, list.binarySearch(1000, "zzzz"));
+    }
+
+    /**
+     * Creates sorted transactions with packed and text GUIDs, a few of them on the same date.
+     *
+     * @param random Random generator
+     * @param count  Number of transactions
+     * @return Sorted transactions
+     */
+    private List<Transaction> sortedTransactions(Random random, int count) {
+        List<Transaction> transactions = new ArrayList<Transaction>(count);
+        for (int i = 0; i < count; i++) {
+            transactions.add(randomTransaction(random));
+        }
+        Collections.sort(transactions, LIST_ORDER);
+        return transactions;
+    }
+
+    /**
+     * Creates transaction with random date, value and GUID. Every tenth GUID cannot be packed.
+     *
+     * @param random Random generator
+     * @return New transaction
+     */
+    private Transaction randomTransaction(Random random) {
+        String guid = new UUID(random.nextLong(), random.nextLong()).toString();
+        if (random.nextInt(10) == 0) {
+            guid = guid.toUpperCase();
+        }
+        return transaction(guid, random.nextInt(2000), random.nextInt(20001) - 10000);
+    }
+
+    /**
+     * Checks that the list and its frozen view have the expected content, sums and column values.
+     *
+     * @param expected Expected transactions
+     * @param list     Tested list
+     */
+    private static void assertContent(List<Transaction> expected, TransactionList list) {
+        assertEquals(expected.size(), list.size());
+        TransactionList.Frozen frozen = list.freeze();
+        long sum = 0;
+        for (int i = expected.size() - 1; i >= 0; i--) {
+            Transaction transaction = expected.get(i);
+            sum += transaction.getValue();
+            assertEquals(transaction, list.get(i));
+            assertEquals(transaction.getDate(), list.getDate(i));
+            assertEquals(transaction.getValue(), list.getValue(i));
+            assertEquals(transaction.getKindId(), list.getKindId(i));
+            assertEquals(transaction.getGuid(), list.getGuid(i));
+            assertEquals(sum, frozen.sumFrom(i));
+        }
+        assertEquals(sum, frozen.getSum());
+        assertEquals(expected, frozen);
+    }
+
+    public void testRandomChangesMatchArrayList() {
+        Random random = new Random(7);
+        List<Transaction> expected = sortedTransactions(random, 1500);
+        TransactionList list = new TransactionList(kinds);
+        list.setAll(expected);
+        expected = new ArrayList<Transaction>(expected);
+        assertContent(expected, list);
+
+        for (int step = 0; step < 3000; step++) {
+            int operation = random.nextInt(4);
+            if (operation == 0 || expected.isEmpty()) {
+                Transaction transaction = randomTransaction(random);
+                int index = list.binarySearch(transaction.getDate(), transaction.getGuid());
+                assertTrue(index < 0);
+                list.add(-index - 1, transaction);
+                expected.add(-index - 1, transaction);
+            } else if (operation == 1) {
+                int index = random.nextInt(expected.size());
+                assertEquals(expected.remove(index), list.remove(index));
+            } else if (operation == 2) {
+                // The same place in the order, only the value changes
+                int index = random.nextInt(expected.size());
+                Transaction transaction = new Transaction(expected.get(index));
+                transaction.setValue(transaction.getValue() + 1);
+                list.set(index, transaction);
+                expected.set(index, transaction);
+            } else {
+                int index = random.nextInt(expected.size());
+                assertEquals(index, list.binarySearch(expected.get(index).getDate(), expected.get(index).getGuid()));
+            }
+        }
+        assertContent(expected, list);
+    }
+
+    public void testFrozenViewDoesNotChange() {
+        Random random = new Random(3);
+        List<Transaction> transactions = sortedTransactions(random, 1200);
+        TransactionList list = new TransactionList(kinds);
+        list.setAll(transactions);
+        TransactionList.Frozen frozen = list.freeze();
+        long sum = frozen.getSum();
+
+        list.remove(600);
+        list.add(0, transaction("ffffffff-ffff-ffff-ffff-ffffffffffff", 5000, 1));
+        list.set(1000, transaction(transactions.get(1000).getGuid(), transactions.get(1000).getDate(), 12345));
+        list.removeFrom(100);
+
+        assertEquals(transactions, frozen);
+        assertEquals(sum, frozen.getSum());
+        assertEquals(100, list.size());
+    }
+
+    public void testRunningSumsOfOldViewSurviveChanges() {
+        Random random = new Random(11);
+        List<Transaction> expected = new ArrayList<Transaction>(sortedTransactions(random, 1200));
+        TransactionList list = new TransactionList(kinds);
+        list.setAll(expected);
+        List<Transaction> old = new ArrayList<Transaction>(expected);
+        TransactionList.Frozen frozen = list.freeze();
+        long[] oldSums = new long[old.size()];
+        for (int i = 0; i < oldSums.length; i++) {
+            oldSums[i] = frozen.sumFrom(i);
+        }
+
+        // Chunks with computed sums are copied before the change, the copies compute their own sums
+        Transaction changed = new Transaction(expected.get(700));
+        changed.setValue(changed.getValue() + 1000);
+        list.set(700, changed);
+        expected.set(700, changed);
+        list.remove(10);
+        expected.remove(10);
+        assertContent(expected, list);
+
+        for (int i = 0; i < oldSums.length; i++) {
+            assertEquals(oldSums[i], frozen.sumFrom(i));
+        }
+        assertEquals(old, frozen);
+    }
+
+    public void testMergeRemovesAndInserts() {
+        Random random = new Random(5);
+        List<Transaction> all = sortedTransactions(random, 2000);
+        List<Transaction> kept = new ArrayList<Transaction>();
+        List<Transaction> inserted = new ArrayList<Transaction>();
+        for (int i = 0; i < all.size(); i++) {
+            (i % 3 == 0 ? inserted : kept).add(all.get(i));
+        }
+        TransactionList list = new TransactionList(kinds);
+        list.setAll(kept);
+
+        // Remove every fifth kept transaction and merge the others in
+        List<Integer> removed = new ArrayList<Integer>();
+        List<Transaction> expected = new ArrayList<Transaction>();
+        for (int i = 0; i < kept.size(); i++) {
+            if (i % 5 == 0) {
+                removed.add(i);
+            }
+        }
+        int[] removedIndexes = new int[removed.size()];
+        for (int i = 0; i < removedIndexes.length; i++) {
+            removedIndexes[i] = removed.get(i);
+        }
+        for (Transaction transaction : all) {
+            int keptIndex = kept.indexOf(transaction);
+            if (keptIndex < 0 || keptIndex % 5 != 0) {
+                expected.add(transaction);
+            }
+        }
+        list.merge(removedIndexes, inserted);
+
+        assertContent(expected, list);
+    }
+
+    public void testRangeSums() {
+        Random random = new Random(11);
+        List<Transaction> transactions = sortedTransactions(random, 3000);
+        TransactionList list = new TransactionList(kinds);
+        list.setAll(transactions);
+        TransactionList.Frozen frozen = list.freeze();
+
+        for (int step = 0; step < 200; step++) {
+            int from = random.nextInt(transactions.size());
+            int to = from + random.nextInt(transactions.size() - from + 1);
+            long sum = 0;
+            for (int i = from; i < to; i++) {
+                sum += transactions.get(i).getValue();
+            }
+            assertEquals(sum, frozen.getSum(from, to));
+
+            long date = random.nextInt(2100) - 50;
+            int first = frozen.firstIndexNotNewerThan(date);
+            assertTrue(first == transactions.size() || transactions.get(first).getDate() <= date);
+            assertTrue(first == 0 || transactions.get(first - 1).getDate() > date);
+        }
+    }
+
+    public void testRemoveFromAndAppend() {
+        Random random = new Random(13);
+        List<Transaction> transactions = sortedTransactions(random, 1300);
+        TransactionList list = new TransactionList(kinds);
+        list.addAll(transactions.subList(0, 700));
+        list.removeFrom(300);
+        list.addAll(transactions.subList(300, 1300));
+
+        assertContent(transactions, list);
+        list.removeFrom(0);
+        assertEquals(0, list.size());
+        assertEquals(0, list.freeze().getSum());
+    }
+}
@@ -7,11 +7,24 @@ import android.app.Application;
  */
 public class BudgetApplication extends Application {
 
+    /**
+     * Maximal number of transactions kept in memory, older months are loaded from the database when needed
+     */
+    private static final int MEMORY_BUDGET = 10000;
+
     @Override
     public void onCreate() {
         super.onCreate();
 
         // Initialize Data model. It needs to be ready.
         DataModel.init(getApplicationContext());
+        DataModel.setMemoryBudget(MEMORY_BUDGET);
+    }
+
+    @Override
+    public void onTerminate() {
+        // Called only in emulated environments, a real process is killed without it. Changes are written in MainActivity.onStop.
+        DataModel.shutdown();
+        super.onTerminate();
     }
 }
\ No newline at end of file
@@ -8,10 +8,12 @@ import android.view.ViewGroup;
 import android.widget.ArrayAdapter;
 import android.widget.TextView;
 
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.List;
 
 import cz.avast.personalbudget.entity.Transaction;
+import cz.avast.personalbudget.model.DataSnapshot;
 
 /**
  * Adapter class for populating Budget list
@@ -22,6 +24,10 @@ public class BudgetListAdapter extends ArrayAdapter<Transaction> {
      * Row view id
      */
     private static final int resource = R.layout.item_budget_list;
+    /**
+     * Number of rows before the end of the list at which older transactions start loading
+     */
+    private static final int LOAD_MORE_THRESHOLD = 20;
     /**
      * Color value for green stripe
      */
@@ -35,18 +41,23 @@ public class BudgetListAdapter extends ArrayAdapter<Transaction> {
      */
     private final String currency;
     /**
-     * List of transactions that are displayed in the list
+     * Snapshot of the data that is displayed in the list
      */
-    private List<Transaction> transactions;
+    private DataSnapshot snapshot;
     /**
      * Inflater used to get the row view
      */
     private LayoutInflater mInflater;
+    /**
+     * Listener called when the end of the loaded transactions is displayed
+     */
+    private OnLoadMoreListener loadMoreListener;
 
-    public BudgetListAdapter(Context context, List<Transaction> transactions) {
-        super(context, resource, transactions);
+    public BudgetListAdapter(Context context, DataSnapshot snapshot) {
+        // The list is read from the snapshot, the adapter's own list is not used
+        super(context, resource, new ArrayList<Transaction>());
         this.mInflater = LayoutInflater.from(context);
-        this.transactions = transactions;
+        this.snapshot = snapshot;
         Resources resources = context.getResources();
         this.greenBackground = resources.getColor(R.color.light_green);
         this.redBackground = resources.getColor(R.color.light_red);
@@ -60,7 +71,18 @@ public class BudgetListAdapter extends ArrayAdapter<Transaction> {
      */
     @Override
     public int getCount() {
-        return transactions.size();
+        return snapshot.getTransactions().size();
+    }
+
+    /**
+     * Returns transaction displayed in the row
+     *
+     * @param position Number of a row
+     * @return Transaction
+     */
+    @Override
+    public Transaction getItem(int position) {
+        return snapshot.getTransactions().get(position);
     }
 
     /**
@@ -83,6 +105,7 @@ public class BudgetListAdapter extends ArrayAdapter<Transaction> {
             holder.textValue = (TextView) convertView.findViewById(R.id.textValue);
             holder.textDateTime = (TextView) convertView.findViewById(R.id.textDate);
             holder.textDescription = (TextView) convertView.findViewById(R.id.textDescription);
+            holder.textRunningBalance = (TextView) convertView.findViewById(R.id.textRunningBalance);
             holder.viewIndicator = convertView.findViewById(R.id.viewIndicator);
 
             convertView.setTag(holder);
@@ -90,12 +113,18 @@ public class BudgetListAdapter extends ArrayAdapter<Transaction> {
 
         ViewHolder holder = (ViewHolder) convertView.getTag();
 
+        // Ask for older transactions before the user scrolls to the end of the loaded ones
+        if (loadMoreListener != null && !snapshot.isComplete() && position >= getCount() - LOAD_MORE_THRESHOLD) {
+            loadMoreListener.onLoadMore();
+        }
+
         // Get transaction for current row
-        Transaction transaction = transactions.get(position);
+        Transaction transaction = getItem(position);
 
         // Set data to the views
-        holder.textValue.setText(transaction.getValue() + " " + currency);
+        holder.textValue.setText(Money.toPlainString(transaction.getValue()) + " " + currency);
         holder.textDescription.setText(String.valueOf(transaction.getKind()));
+        holder.textRunningBalance.setText(Money.toPlainString(snapshot.getRunningBalance(position)) + " " + currency);
 
         // Set date and time
         Calendar cal = Calendar.getInstance();
@@ -113,7 +142,48 @@ public class BudgetListAdapter extends ArrayAdapter<Transaction> {
     }
 
     public List<Transaction> getTransactions() {
-        return transactions;
+        return snapshot.getTransactions();
+    }
+
+    public DataSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Displays newer snapshot of the data. Has to be called on the UI thread.
+     *
+     * @param snapshot Snapshot of the data
+     */
+    public void setSnapshot(DataSnapshot snapshot) {
+        if (this.snapshot.getVersion() != snapshot.getVersion()) {
+            this.snapshot = snapshot;
+            notifyDataSetChanged();
+        }
+    }
+
+    /**
+     * Replaces the snapshot without refreshing the list. The new snapshot must have the same number of rows, the caller binds changed rows again.
+     * Has to be called on the UI thread.
+     *
+     * @param snapshot Snapshot of the data
+     */
+    public void replaceSnapshot(DataSnapshot snapshot) {
+        this.snapshot = snapshot;
+    }
+
+    public void setOnLoadMoreListener(OnLoadMoreListener loadMoreListener) {
+        this.loadMoreListener = loadMoreListener;
+    }
+
+    /**
+     * Listener which loads older transactions when the end of the list is displayed
+     */
+    public interface OnLoadMoreListener {
+
+        /**
+         * Gets called from getView when a row near the end of the loaded transactions is displayed. The adapter must not be changed during the call.
+         */
+        public void onLoadMore();
     }
 
     /**
@@ -123,6 +193,7 @@ public class BudgetListAdapter extends ArrayAdapter<Transaction> {
         TextView textValue;
         TextView textDateTime;
         TextView textDescription;
+        TextView textRunningBalance;
         View viewIndicator;
     }
 }
@@ -24,9 +24,10 @@ import org.apache.http.Header;
 import org.apache.http.entity.ByteArrayEntity;
 
 import java.text.DecimalFormat;
-import java.util.List;
 
 import cz.avast.personalbudget.entity.Transaction;
+import cz.avast.personalbudget.model.ChangeSet;
+import cz.avast.personalbudget.model.DataSnapshot;
 import de.timroes.android.listview.EnhancedListView;
 
 /**
@@ -65,6 +66,21 @@ public class BudgetListFragment extends Fragment {
      */
     private TextView textBalance;
 
+    /**
+     * Whether loading of older transactions is already posted and its snapshot is not displayed yet
+     */
+    private boolean loadingMore;
+
+    /**
+     * Listener which displays changes of the data, it is called on the main thread
+     */
+    private final DataModel.OnDataChangedListener dataChangedListener = new DataModel.OnDataChangedListener() {
+        @Override
+        public void onDataChanged(DataSnapshot snapshot, ChangeSet changes) {
+            displayChanges(snapshot, changes);
+        }
+    };
+
     @Override
     public void onAttach(Activity activity) {
         super.onAttach(activity);
@@ -81,17 +97,42 @@ public class BudgetListFragment extends Fragment {
         // Get desired fragment's view to fill with data
         View rootView = inflater.inflate(R.layout.fragment_budget_list, container, false);
 
-        // Get list of transactions for filling the list
-        List<Transaction> transactions = DataModel.getActiveTransactions();
+        // Get snapshot of the data for filling the list
+        DataSnapshot snapshot = DataModel.getSnapshot();
 
         // Init Views
         listBudget = (EnhancedListView) rootView.findViewById(R.id.listBudget);
         textBalance = (TextView) rootView.findViewById(R.id.textBalance);
 
         // Set up list adapter
-        adapterBudget = new BudgetListAdapter(getActivity(), transactions);
+        adapterBudget = new BudgetListAdapter(getActivity(), snapshot);
         listBudget.setAdapter(adapterBudget);
 
+        // Display every change of the data
+        DataModel.addOnDataChangedListener(dataChangedListener);
+
+        // Load older transactions when the list is scrolled to the end of the loaded ones
+        adapterBudget.setOnLoadMoreListener(new BudgetListAdapter.OnLoadMoreListener() {
+            @Override
+            public void onLoadMore() {
+                if (loadingMore) {
+                    return;
+                }
+                loadingMore = true;
+
+                // The list is being laid out now, change it afterwards
+                listBudget.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        // The loaded page is displayed by the listener, which allows loading the next one
+                        if (!DataModel.loadMoreTransactions()) {
+                            loadingMore = false;
+                        }
+                    }
+                });
+            }
+        });
+
         // Set up swipe-to-dismiss callback
         listBudget.setDismissCallback(new EnhancedListView.OnDismissCallback() {
 
@@ -108,12 +149,10 @@ public class BudgetListFragment extends Fragment {
                 final Transaction item = adapterBudget.getItem(position);
 
                 if (item != null) {
-                    // Remove the transaction temporally and update list
+                    // Remove the transaction temporally. The list reads the adapter right after this callback returns,
+                    // so the new snapshot is displayed now, the listener then skips it as already displayed
                     DataModel.OnListRemove(item);
-                    adapterBudget.notifyDataSetChanged();
-
-                    // Display new balance
-                    displayBalance(DataModel.getBalance());
+                    displaySnapshot(DataModel.getSnapshot());
 
                     // Return an Undoable for undoing the swipe
                     return new EnhancedListView.Undoable() {
@@ -123,13 +162,9 @@ public class BudgetListFragment extends Fragment {
                          */
                         @Override
                         public void undo() {
-                            DataModel.OnListReinsert(position, item);
-
-                            // update the list
-                            adapterBudget.notifyDataSetChanged();
-
-                            // Display new balance
-                            displayBalance(DataModel.getBalance());
+                            // Display the item and new balance at once, the listener skips the already displayed snapshot
+                            DataModel.OnListReinsert(item);
+                            displaySnapshot(DataModel.getSnapshot());
                         }
 
                         // Return a string for your item
@@ -173,7 +208,7 @@ public class BudgetListFragment extends Fragment {
         });
 
         // Display new balance
-        displayBalance(DataModel.getBalance());
+        displayBalance(snapshot.getBalance());
 
         // If if user has no transactions in the application, run the synchronization
         if (adapterBudget.getTransactions().isEmpty()) {
@@ -184,6 +219,12 @@ public class BudgetListFragment extends Fragment {
         return rootView;
     }
 
+    @Override
+    public void onDestroyView() {
+        DataModel.removeOnDataChangedListener(dataChangedListener);
+        super.onDestroyView();
+    }
+
     @Override
     public void onStop() {
         // Remove the option to undo the swipe
@@ -252,13 +293,9 @@ public class BudgetListFragment extends Fragment {
                 // Handle data that were sent to the server
                 DataModel.onSyncSuccess();
 
-                // Handle data that were receiver from the server
+                // Handle data that were receiver from the server in the background, the listener updates list and displays the new budget when they are merged
                 DataModel.onReceivedData(accountDelta);
 
-                // Update list and display the new budget
-                adapterBudget.notifyDataSetChanged();
-                displayBalance(DataModel.getBalance());
-
                 // Inform user about successful sync
                 Toast.makeText(getActivity(), R.string.toast_succesfull_changes, Toast.LENGTH_SHORT).show();
             }
@@ -317,14 +354,59 @@ public class BudgetListFragment extends Fragment {
         return true;
     }
 
+    /**
+     * Displays transactions and balance from the snapshot of the data
+     *
+     * @param snapshot Snapshot of the data
+     */
+    private void displaySnapshot(DataSnapshot snapshot) {
+        loadingMore = false;
+        adapterBudget.setSnapshot(snapshot);
+        displayBalance(snapshot.getBalance());
+    }
+
+    /**
+     * Displays changes of the data. If the number of rows did not change, only the visible rows affected by the changes are bound again,
+     * otherwise the whole list is refreshed.
+     *
+     * @param snapshot New snapshot of the data
+     * @param changes  Changes since the previous snapshot
+     */
+    private void displayChanges(DataSnapshot snapshot, ChangeSet changes) {
+        // Notifications posted before the view was created carry snapshots which are already displayed
+        if (snapshot.getVersion() <= adapterBudget.getSnapshot().getVersion()) {
+            return;
+        }
+
+        // Changes can be applied only to the directly preceding snapshot
+        if (changes.isStructural() || adapterBudget.getSnapshot().getVersion() + 1 != snapshot.getVersion()) {
+            displaySnapshot(snapshot);
+            return;
+        }
+
+        loadingMore = false;
+        adapterBudget.replaceSnapshot(snapshot);
+        int firstVisible = listBudget.getFirstVisiblePosition();
+        int lastAffected = Math.min(listBudget.getLastVisiblePosition(), changes.getLastAffectedPosition());
+        for (int position = firstVisible; position <= lastAffected; position++) {
+            View row = listBudget.getChildAt(position - firstVisible);
+            if (row != null) {
+                adapterBudget.getView(position, row, listBudget);
+            }
+        }
+        if (changes.isBalanceChanged()) {
+            displayBalance(snapshot.getBalance());
+        }
+    }
+
     /**
      * Displays balance into the balance textview. The balance is rounded up to 2 decimal places for clarity
      *
-     * @param balance Balance value
+     * @param balance Balance value in minor currency units
      */
-    private void displayBalance(double balance) {
+    private void displayBalance(long balance) {
         DecimalFormat df2 = new DecimalFormat("###.##");
-        textBalance.setText(df2.format(balance) + " " + getString(R.string.currency));
+        textBalance.setText(df2.format(Money.toDouble(balance)) + " " + getString(R.string.currency));
     }
 
     /**
@@ -1,22 +1,58 @@
 package cz.avast.personalbudget;
 
 import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
 import android.util.Log;
 
 import com.bean_keeper.Proto;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
 import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import cz.avast.personalbudget.db.BudgetDataSource;
+import cz.avast.personalbudget.db.TransactionCursor;
+import cz.avast.personalbudget.db.WriteBehindQueue;
+import cz.avast.personalbudget.entity.PeriodTotals;
 import cz.avast.personalbudget.entity.Transaction;
+import cz.avast.personalbudget.model.ChangeSet;
+import cz.avast.personalbudget.model.DataSnapshot;
+import cz.avast.personalbudget.model.GuidIndex;
+import cz.avast.personalbudget.model.KindDictionary;
+import cz.avast.personalbudget.model.KindIndex;
+import cz.avast.personalbudget.model.Outbox;
+import cz.avast.personalbudget.model.PackedGuid;
+import cz.avast.personalbudget.model.PeriodRollups;
+import cz.avast.personalbudget.model.TransactionBatch;
+import cz.avast.personalbudget.model.TransactionList;
+import cz.avast.personalbudget.model.TransactionRange;
 
 /**
  * Fragment for displaying Budget transactions in list
  * Created by mastajner on 04/04/14.
+ * <p/>
+ * Methods changing the data are synchronized, so there is always a single writer. After every change the writer publishes an immutable {@link DataSnapshot},
+ * readers on any thread use the snapshot without locking.
+ * <p/>
+ * Transactions are loaded lazily. The balance is calculated by the database and only the newest page of transactions is loaded at start,
+ * older pages are loaded when the list is scrolled to them. Queries over the history are answered from the period totals and the kind index,
+ * transactions which are not loaded are read from the database without adding them to the budget list.
+ * With a memory budget the oldest months are evicted again, see {@link #setMemoryBudget(int)}.
  */
 public class DataModel {
 
@@ -25,13 +61,26 @@ public class DataModel {
      */
     public static final String TAG = DataModel.class.getSimpleName();
     /**
-     * Comparator for comparing transactions. Transactions are sorted according their date and time
+     * Number of transactions loaded at once
+     */
+    private static final int PAGE_SIZE = 100;
+    /**
+     * Time in seconds the thread for received data is kept alive without work
+     */
+    private static final long RECEIVE_KEEP_ALIVE = 30;
+    /**
+     * Time in milliseconds {@link #flush()} waits for the writes, it is called on the UI thread and must stay well below the ANR limit
+     */
+    private static final long FLUSH_TIMEOUT = 1000;
+    /**
+     * Comparator for comparing transactions. Transactions are sorted according their date and time. Transactions with the same date are ordered by GUID in the order of the database ({@link PackedGuid#compareGuids(String, String)}),
+     * so every transaction has exactly one place in the list, can be found by binary search and pages of the database continue the list.
      */
     private static final Comparator<? super Transaction> transactionComparator = new Comparator<Transaction>() {
         @Override
         public int compare(Transaction transaction, Transaction transaction2) {
             if (transaction.getDate() == transaction2.getDate()) {
-                return 0;
+                return PackedGuid.compareGuids(transaction.getGuid(), transaction2.getGuid());
             } else {
                 // If transaction is older then transaction2
                 if (transaction.getDate() > transaction2.getDate()) {
@@ -47,87 +96,418 @@ public class DataModel {
      */
     private static Context context;
     /**
-     * Stored balance
+     * Stored balance in minor currency units
+     */
+    private static long balance;
+    /**
+     * Totals of displayed transactions per day, week, month and year
+     */
+    private static PeriodRollups rollups;
+    /**
+     * Statistics of displayed transactions by their kind. It is built by the first query which needs it and kept up to date afterwards,
+     * it does not depend on loaded transactions.
+     */
+    private static KindIndex kindIndex;
+    /**
+     * Dictionary of transaction kinds used by the list of active transactions
      */
-    private static double balance;
+    private static KindDictionary kindDictionary;
     /**
      * Stored list of active transactions. Transaction displayed in the budget list.
      */
-    private static List<Transaction> activeTransactions;
+    private static TransactionList activeTransactions;
+    /**
+     * Dates of active transactions by their GUID, the date is enough to find the transaction in the list. It always contains exactly the transactions from the active list.
+     */
+    private static GuidIndex activeGuids;
+    /**
+     * Whether all transactions are loaded to the list of active transactions
+     */
+    private static boolean allLoaded;
+    /**
+     * The oldest loaded transaction. Transactions after it in the order of the list are not loaded yet, null if no transaction is loaded.
+     */
+    private static Transaction pageBoundary;
+    /**
+     * GUIDs of transactions removed from the budget list which can still be put back. They stay in the database until the removal is confirmed,
+     * so reads from the database leave them out.
+     */
+    private static final Set<String> removedGuids = new HashSet<String>();
+    /**
+     * Maximal number of loaded transactions, 0 for no limit. Oldest months above the limit are evicted.
+     */
+    private static int memoryBudget;
+    /**
+     * Number of transactions the budget list was scrolled to, they are never evicted
+     */
+    private static int scrolledCount;
     /**
-     * Stored list of pending transactions. New transactions or old that were altered and deleted
+     * Pending transactions waiting for sync, the last change of every new, altered or deleted transaction
      */
-    private static List<Transaction> pendingTransactions;
+    private static Outbox outbox;
     /**
      * Instance of a persistent data source.
      */
     private static BudgetDataSource dataSource;
+    /**
+     * Queue of database writes. Changes are written on the database thread, so the callers do not wait for the disk.
+     */
+    private static WriteBehindQueue writeQueue;
+    /**
+     * Thread decoding and merging data received from the server, one response after another. It stops when it is idle.
+     */
+    private static ThreadPoolExecutor receiveExecutor;
+    /**
+     * Version of the last published snapshot
+     */
+    private static long version;
+    /**
+     * The last published state of the data. Readers use it without locking.
+     */
+    private static volatile DataSnapshot snapshot;
+    /**
+     * Changes of the budget list since the last published snapshot
+     */
+    private static ChangeSet.Builder changes = new ChangeSet.Builder();
+    /**
+     * Listeners notified about every published snapshot
+     */
+    private static final List<OnDataChangedListener> listeners = new CopyOnWriteArrayList<OnDataChangedListener>();
+    /**
+     * Handler of the main thread, listeners are notified through it
+     */
+    private static Handler mainHandler;
 
     /**
      * Initialization method. This needs to be called from within the application class before any other method from this class is called.
      *
      * @param applicationContext Application context
      */
-    public static void init(Context applicationContext) {
+    public static synchronized void init(Context applicationContext) {
         context = applicationContext;
+        mainHandler = new Handler(Looper.getMainLooper());
 
-        // Get instance of persisted data source
-        dataSource = new BudgetDataSource(context);
+        // Get instance of persisted data source, it reads kinds of the transactions from the dictionary
+        kindDictionary = new KindDictionary();
+        dataSource = new BudgetDataSource(context, kindDictionary);
+        writeQueue = new WriteBehindQueue(dataSource);
+        receiveExecutor = new ThreadPoolExecutor(1, 1, RECEIVE_KEEP_ALIVE, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, "budget-receive");
+            }
+        });
+        receiveExecutor.allowCoreThreadTimeOut(true);
 
-        // Load up required data transactions
+        // Open the connection for the lifetime of the process
         dataSource.open();
-        activeTransactions = dataSource.loadNotDeletedTransactions();
-        pendingTransactions = dataSource.loadPendingTransactions();
-        dataSource.close();
 
-        // Calculate balance
-        balance = 0;
-        for (Transaction transaction : activeTransactions) {
-            balance += transaction.getValue();
+        // Load up the kinds, the balance, the first page of transactions and pending transactions. The database orders transactions the same way as the comparator does.
+        dataSource.loadKinds();
+        balance = dataSource.loadBalance();
+        long count = dataSource.countNotDeletedTransactions();
+        List<Transaction> firstPage = dataSource.loadNotDeletedTransactionsPage(null, PAGE_SIZE);
+        List<Transaction> loadedPendingTransactions = dataSource.loadPendingTransactions();
+        List<PeriodTotals> persistedRollups = dataSource.loadRollups();
+
+        outbox = new Outbox();
+        outbox.load(loadedPendingTransactions);
+        activeTransactions = new TransactionList(kindDictionary);
+        activeGuids = new GuidIndex();
+        allLoaded = false;
+        pageBoundary = null;
+        scrolledCount = 0;
+        kindIndex = null;
+        removedGuids.clear();
+
+        // Use persisted period totals. If they do not match the transactions (e.g. after database upgrade) or they were computed in another time zone,
+        // build them again from all transactions. Transactions are streamed from the database, so only the first page stays in memory.
+        rollups = new PeriodRollups(TimeZone.getDefault());
+        rollups.load(persistedRollups);
+        if (!rollups.getTimeZoneId().equals(PrefManager.getRollupsTimeZone(context))
+                || rollups.getCount(PeriodTotals.Period.YEAR) != count
+                || rollups.getNet(PeriodTotals.Period.YEAR) != balance) {
+            Log.d(TAG, "Rebuilding period totals");
+            rollups.clear();
+            TransactionCursor transactions = dataSource.queryNotDeletedTransactions();
+            try {
+                while (transactions.hasNext()) {
+                    Transaction transaction = transactions.next();
+                    rollups.add(transaction.getDate(), transaction.getValue());
+                }
+            } finally {
+                transactions.close();
+            }
+            dataSource.replaceRollups(rollups.takeAll());
+            PrefManager.setRollupsTimeZone(context, rollups.getTimeZoneId());
+        }
+        appendLoadedTransactions(firstPage, firstPage.size() == count ? null : firstPage.get(firstPage.size() - 1));
+
+        publishSnapshot();
+    }
+
+    /**
+     * Starts writing all queued changes to the database and waits until they are written, but at most {@link #FLUSH_TIMEOUT}, so it can be called
+     * on the UI thread. Call it before the application may be stopped.
+     */
+    public static void flush() {
+        writeQueue.flush(FLUSH_TIMEOUT);
+    }
+
+    /**
+     * Merges received data, writes all queued changes, stops the database thread and closes the database connection. The data model cannot be used afterwards until it is initialized again.
+     */
+    public static void shutdown() {
+        // Merging needs the lock, so it is not held while waiting for the received data
+        receiveExecutor.shutdown();
+        try {
+            receiveExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (DataModel.class) {
+            writeQueue.close();
+            dataSource.close();
         }
     }
 
+    /**
+     * Loads the next page of older transactions to the budget list and publishes new snapshot.
+     *
+     * @return False if all transactions were already loaded
+     */
+    public static synchronized boolean loadMoreTransactions() {
+        if (allLoaded) {
+            return false;
+        }
+        loadOlderTransactions(PAGE_SIZE);
+        scrolledCount = activeTransactions.size();
+        publishSnapshot();
+        return true;
+    }
+
+    /**
+     * Limits number of loaded transactions. Above the limit the oldest months are evicted and loaded again when the list is scrolled to them
+     * or when a query needs them. Balance, period totals and indexes stay exact, they do not depend on loaded transactions.
+     *
+     * @param maxTransactions Maximal number of loaded transactions, 0 for no limit
+     */
+    public static synchronized void setMemoryBudget(int maxTransactions) {
+        memoryBudget = maxTransactions;
+        evictOldMonths();
+    }
+
+    /**
+     * Evicts transactions the budget list was scrolled to if they are over the memory budget. Call it when the list is not visible.
+     */
+    public static synchronized void releaseMemory() {
+        scrolledCount = 0;
+        evictOldMonths();
+    }
+
+    /**
+     * Get the last published state of the data. It is safe to call from any thread.
+     *
+     * @return Immutable snapshot of the data
+     */
+    public static DataSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Registers listener which is notified about every change of the data.
+     *
+     * @param listener Listener
+     */
+    public static void addOnDataChangedListener(OnDataChangedListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Unregisters listener added by {@link #addOnDataChangedListener(OnDataChangedListener)}.
+     *
+     * @param listener Listener
+     */
+    public static void removeOnDataChangedListener(OnDataChangedListener listener) {
+        listeners.remove(listener);
+    }
+
     /**
      * Get acutal balance
      *
-     * @return balance value
+     * @return balance value in minor currency units
      */
-    public static double getBalance() {
-        return balance;
+    public static long getBalance() {
+        return snapshot.getBalance();
     }
 
     /**
-     * Get list of displayed transactions
+     * Get balance as it was at the specific date and time, i.e. sum of all displayed transactions not newer than the date.
+     * Days before the date are summed by one prefix query over the day totals in O(log d), only transactions of the same day are visited. They are read from the budget list
+     * if they are loaded, otherwise from the database, so the budget list is not changed.
      *
-     * @return List of transactions
+     * @param date Timestamp
+     * @return balance value in minor currency units
+     */
+    public static synchronized long getBalanceAt(long date) {
+        long dayStart = rollups.getPeriodStart(PeriodTotals.Period.DAY, date);
+        long result = rollups.getNetBefore(dayStart);
+
+        // Add transactions from the same day, they are not newer than the date
+        if (isLoadedSince(dayStart)) {
+            for (int i = firstIndexNotNewerThan(date); i < activeTransactions.size() && activeTransactions.getDate(i) >= dayStart; i++) {
+                result += activeTransactions.getValue(i);
+            }
+        } else {
+            for (Transaction transaction : loadTransactionsInRange(dayStart, date + 1)) {
+                result += transaction.getValue();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get displayed transactions in the date range with their sum. If the range is loaded, it is found by binary search in O(log n) and the transactions are not copied.
+     * Range which reaches below the loaded transactions is read from the database, the budget list is not changed.
+     *
+     * @param from Start of the range (inclusive)
+     * @param to   End of the range (exclusive)
+     * @return Transactions in the range, a view of the current snapshot if the range is loaded
+     */
+    public static synchronized TransactionRange getTransactionsInRange(long from, long to) {
+        if (isLoadedSince(from)) {
+            return snapshot.getRange(from, to);
+        }
+        return new TransactionRange(loadTransactionsInRange(from, to), from, to);
+    }
+
+    /**
+     * Get balance right after the transaction at the position in the budget list, i.e. sum of the transaction and all transactions below it.
+     *
+     * @param position Index of the transaction in the budget list
+     * @return balance value in minor currency units
+     */
+    public static long getRunningBalance(int position) {
+        return snapshot.getRunningBalance(position);
+    }
+
+    /**
+     * Get totals of displayed transactions in the calendar period which contains the date
+     *
+     * @param period Type of the period
+     * @param date   Timestamp
+     * @return Period totals
+     */
+    public static synchronized PeriodTotals getPeriodTotals(PeriodTotals.Period period, long date) {
+        return new PeriodTotals(rollups.get(period, date));
+    }
+
+    /**
+     * Get count, sum, minimum and maximum of displayed transactions of the kind
+     *
+     * @param kind Kind of transactions
+     * @return Statistics or null if there is no such transaction
+     */
+    public static synchronized KindIndex.KindStats getKindStats(String kind) {
+        ensureKindIndex();
+        int kindId = kindDictionary.findId(kind);
+        if (kindId == Transaction.NO_KIND_ID) {
+            return null;
+        }
+        KindIndex.KindStats stats = kindIndex.get(kindId);
+        return stats != null ? stats.copy() : null;
+    }
+
+    /**
+     * Get kinds with the largest sum (by magnitude) of all displayed transactions
+     *
+     * @param count Maximal number of kinds
+     * @return Statistics of the kinds ordered from the largest sum
+     */
+    public static synchronized List<KindIndex.KindStats> getTopKinds(int count) {
+        ensureKindIndex();
+        List<KindIndex.KindStats> result = new ArrayList<KindIndex.KindStats>();
+        for (KindIndex.KindStats stats : KindIndex.selectTop(kindIndex.getAll(), count)) {
+            result.add(stats.copy());
+        }
+        return result;
+    }
+
+    /**
+     * Get kinds with the largest sum (by magnitude) of displayed transactions in the date range. Whole months inside the range are taken from the kind index,
+     * only transactions in the partial months at the edges of the range are visited. They are read from the database if they are not loaded.
+     *
+     * @param from  Start of the range (inclusive)
+     * @param to    End of the range (exclusive)
+     * @param count Maximal number of kinds
+     * @return Totals of the kinds ordered from the largest sum
+     */
+    public static synchronized List<KindIndex.KindTotals> getTopKinds(long from, long to, int count) {
+        ensureKindIndex();
+        Map<Integer, KindIndex.KindTotals> totals = new HashMap<Integer, KindIndex.KindTotals>();
+
+        long fromMonth = kindIndex.getMonthStart(from);
+        if (fromMonth < from) {
+            fromMonth = kindIndex.getNextMonthStart(fromMonth);
+        }
+        long toMonth = kindIndex.getMonthStart(to);
+
+        if (fromMonth < toMonth) {
+            kindIndex.addMonthTotals(fromMonth, toMonth, totals);
+            addRangeTotals(from, fromMonth, totals);
+            addRangeTotals(toMonth, to, totals);
+        } else {
+            addRangeTotals(from, to, totals);
+        }
+        return KindIndex.selectTop(totals.values(), count);
+    }
+
+    /**
+     * Get list of displayed transactions from the last published snapshot
+     *
+     * @return Immutable list of transactions
      */
     public static List<Transaction> getActiveTransactions() {
-        return activeTransactions;
+        return snapshot.getTransactions();
     }
 
     /**
-     * Get list of pending transactions
+     * Get copy of the list of pending transactions
      *
      * @return List of transactions
      */
-    public static List<Transaction> getPendingTransactions() {
-        return pendingTransactions;
+    public static synchronized List<Transaction> getPendingTransactions() {
+        return outbox.getTransactions();
     }
 
     /**
-     * Mark transaction as deleted, add it to the pending list and remove it from displayed list
+     * Mark transaction removed by {@link #OnListRemove(Transaction)} as deleted and add it to the pending list. If the transaction was changed
+     * by a batch or by received data in the meantime, the later change wins and nothing is done.
      *
      * @param transaction Transaction deleted by user
      */
-    public static void setTransactionForDeletion(Transaction transaction) {
-        transaction.setDeleted(true);
-        transaction.setPending(true);
-
-        pendingTransactions.add(transaction);
+    public static synchronized void setTransactionForDeletion(Transaction transaction) {
+        if (!removedGuids.remove(transaction.getGuid())) {
+            return;
+        }
+        // Transaction can still be in older snapshots, change a copy
+        Transaction deletedTransaction = new Transaction(transaction);
+        deletedTransaction.setDeleted(true);
+        deletedTransaction.setPending(true);
 
-        dataSource.open();
-        dataSource.saveTranstaction(transaction);
-        dataSource.close();
+        if (outbox.put(deletedTransaction, false)) {
+            writeQueue.saveTransaction(deletedTransaction);
+        } else {
+            // Transaction was created after the last sync, the backend does not know it and there is nothing to send
+            writeQueue.deleteTransactions(Collections.singletonList(deletedTransaction));
+        }
+        writeQueue.saveRollups(rollups.takeChanged());
     }
 
     /**
@@ -135,7 +515,7 @@ public class DataModel {
      *
      * @return Proto.AccountDelta sync data
      */
-    public static Proto.AccountDelta generateSendingData() {
+    public static synchronized Proto.AccountDelta generateSendingData() {
         long serverTimestamp = PrefManager.getServerTimestamp(context);
 
         Proto.AccountDelta.Builder accountDeltaBuilder = Proto.AccountDelta.newBuilder();
@@ -143,10 +523,10 @@ public class DataModel {
         accountDeltaBuilder.setServerTimestamp(serverTimestamp);
 
         // Set transactions data
-        for (Transaction transaction : pendingTransactions) {
+        for (Transaction transaction : outbox.markSent()) {
             Proto.Transaction.Builder tr = Proto.Transaction.newBuilder();
             tr.setGuid(transaction.getGuid());
-            tr.setValue(transaction.getValue());
+            tr.setValue(Money.toDouble(transaction.getValue()));
             tr.setKind(transaction.getKind());
             tr.setDate(transaction.getDate());
             tr.setDeleted(transaction.isDeleted());
@@ -162,92 +542,135 @@ public class DataModel {
     /**
      * Data was successfully sent to the server and it is necessary to handle them in the device. Deleted transactions by the user can now be safely deleted from the database and new or modified transactions can be removed from pending list.
      */
-    public static void onSyncSuccess() {
+    public static synchronized void onSyncSuccess() {
         List<Transaction> deletedTransactions = new ArrayList<Transaction>();
         List<Transaction> modifiedOrNewTransactions = new ArrayList<Transaction>();
 
-        for (Transaction transaction : pendingTransactions) {
+        // Transactions changed again during the sync stay pending
+        for (Transaction transaction : outbox.confirmSent()) {
             if (transaction.isDeleted()) {
                 deletedTransactions.add(transaction);
             } else {
-                transaction.setPending(false);
                 modifiedOrNewTransactions.add(transaction);
             }
         }
-        // Clear the pending list, all the data was synced
-        pendingTransactions.clear();
 
-        // Save the information to the database and delete deleted transactions
-        dataSource.open();
-        dataSource.saveTranstactions(modifiedOrNewTransactions);
-        dataSource.deleteTransactions(deletedTransactions);
-        dataSource.close();
+        // Clear pending flags in the database and delete deleted transactions, both by sets of GUIDs
+        writeQueue.clearPending(modifiedOrNewTransactions);
+        writeQueue.deleteTransactions(deletedTransactions);
     }
 
     /**
      * Data was successfully received from the server and it is necessary to handle them in the device. Deleted transactions have to be deleted from the database and removed from displayed list and altered or new transactions have to be added or updated.
+     * The data are decoded and merged on a background thread, so the method returns immediately. Listeners are notified on the main thread when the merge is done.
      *
      * @param accountDelta Server data
      */
-    public static void onReceivedData(Proto.AccountDelta accountDelta) {
-        List<Transaction> transactionsToInsertOrUpdate = new ArrayList<Transaction>(accountDelta.getAddedOrModifiedCount());
-        List<Transaction> transactionsToDelete = new ArrayList<Transaction>(accountDelta.getAddedOrModifiedCount());
+    public static void onReceivedData(final Proto.AccountDelta accountDelta) {
+        receiveExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                // Large responses are decoded in parallel, without holding the lock of the data model
+                List<Transaction> receivedTransactions = TransactionDecoder.decode(accountDelta.getAddedOrModifiedList());
+                mergeReceivedTransactions(receivedTransactions, accountDelta.getServerTimestamp());
+            }
+        });
+    }
+
+    /**
+     * Merges decoded transactions received from the server into the data in one step.
+     *
+     * @param decodedTransactions Decoded transactions in the order of the server data
+     * @param serverTimestamp     Server sync timestamp of the data
+     */
+    private static synchronized void mergeReceivedTransactions(List<Transaction> decodedTransactions, final long serverTimestamp) {
+        // The merge runs some time after the sync was confirmed. Transactions changed locally since they were sent keep the local version,
+        // otherwise the received row would replace it in the database as not pending and the change would be lost. The next sync sends it.
+        List<Transaction> receivedTransactions = new ArrayList<Transaction>(decodedTransactions.size());
+        for (Transaction transaction : decodedTransactions) {
+            if (!outbox.contains(transaction.getGuid())) {
+                receivedTransactions.add(transaction);
+            }
+        }
 
-        // Save new server sync timestamp
-        PrefManager.setServerTimestamp(context, accountDelta.getServerTimestamp());
+        List<Transaction> transactionsToInsertOrUpdate = new ArrayList<Transaction>(receivedTransactions.size());
+        List<Transaction> transactionsToDelete = new ArrayList<Transaction>();
 
-        for (Proto.Transaction prTransaction : accountDelta.getAddedOrModifiedList()) {
-            // Create new transaction from server data and decide what to do with it
-            Transaction transaction = new Transaction();
-            transaction.setGuid(prTransaction.getGuid());
-            transaction.setValue(prTransaction.getValue());
-            transaction.setDate(prTransaction.getDate());
-            transaction.setKind(prTransaction.getKind());
-            transaction.setDeleted(prTransaction.getDeleted());
-            transaction.setPending(false);
+        // Indexes of displayed transactions that have to be removed from the list and transactions that have to be displayed
+        List<Integer> indexesToRemove = new ArrayList<Integer>();
+        Map<String, Transaction> transactionsToDisplay = new HashMap<String, Transaction>();
 
-            if (transaction.isDeleted()) {
-                transactionsToDelete.add(transaction);
+        // Received transactions can replace transactions which are not loaded yet, their old values are needed for the totals
+        Map<String, Transaction> notLoadedTransactions = findNotLoadedTransactions(receivedTransactions);
 
-                // If this there is displayed transaction with the same GUID, we have to remove it and adjust the balance.
-                if (activeTransactions.contains(transaction)) {
-                    int oldIndex = activeTransactions.indexOf(transaction);
-                    Transaction old = activeTransactions.get(oldIndex);
-                    activeTransactions.remove(oldIndex);
-                    balance -= old.getValue();
-                }
+        for (Transaction transaction : receivedTransactions) {
+            // Share the kind of the received transaction and decide what to do with it
+            kindDictionary.intern(transaction);
 
+            // If this there is displayed transaction with the same GUID, we have to remove it and adjust the balance.
+            long oldDate = activeGuids.remove(transaction.getGuid());
+            Transaction old;
+            if (oldDate != GuidIndex.NO_DATE) {
+                // The list is not changed until the merge, so the index stays valid
+                int index = activeTransactions.binarySearch(oldDate, transaction.getGuid());
+                old = activeTransactions.get(index);
+                indexesToRemove.add(index);
+                removeFromTotals(old);
+            } else if (removedGuids.remove(transaction.getGuid())) {
+                // Transaction removed by the user and waiting for undo is already out of the totals. The received version replaces it, the undo does nothing.
+                old = null;
             } else {
-                transactionsToInsertOrUpdate.add(transaction);
+                old = notLoadedTransactions.remove(transaction.getGuid());
+                if (old != null) {
+                    removeFromTotals(old);
+                }
+            }
 
-                // If this there is displayed transaction with the same GUID, we have to alter it and adjust the balance.
-                if (activeTransactions.contains(transaction)) {
-                    int oldIndex = activeTransactions.indexOf(transaction);
-                    Transaction old = activeTransactions.get(oldIndex);
-                    activeTransactions.remove(oldIndex);
-                    balance -= old.getValue();
-                    balance += transaction.getValue();
-                    activeTransactions.add(transaction);
+            // The same GUID can come more than once in the data, only the last one is valid
+            Transaction previous = transactionsToDisplay.remove(transaction.getGuid());
+            if (previous != null) {
+                removeFromTotals(previous);
+            }
 
-                } else {
-                    // If this there is displayed transaction with the same GUID, we have to add it and adjust the balance.
-                    activeTransactions.add(transaction);
-                    balance += transaction.getValue();
-                }
+            if (transaction.isDeleted()) {
+                transactionsToDelete.add(transaction);
+            } else {
+                // New or altered transaction is going to be displayed, adjust the balance.
+                transactionsToInsertOrUpdate.add(transaction);
+                transactionsToDisplay.put(transaction.getGuid(), transaction);
+                addToTotals(transaction);
             }
         }
 
-        // Sort the displayed data by datetime
-        Collections.sort(activeTransactions, transactionComparator);
+        // Sort only the received transactions and merge them into the already sorted displayed list, old versions are left out in the same pass.
+        // Transactions older than the loaded ones are loaded later with their page.
+        List<Transaction> sortedTransactionsToDisplay = new ArrayList<Transaction>(transactionsToDisplay.size());
+        for (Transaction transaction : transactionsToDisplay.values()) {
+            if (isLoaded(transaction)) {
+                sortedTransactionsToDisplay.add(transaction);
+                activeGuids.put(transaction.getGuid(), transaction.getDate());
+            }
+        }
+        Collections.sort(sortedTransactionsToDisplay, transactionComparator);
+        mergeActiveTransactions(indexesToRemove, sortedTransactionsToDisplay);
+        publishSnapshot();
 
         // Save new information into the database and delete deleted transactions
-        dataSource.open();
-        dataSource.saveTranstactions(transactionsToInsertOrUpdate);
-        dataSource.deleteTransactions(transactionsToDelete);
-        dataSource.close();
+        writeQueue.saveKinds(kindDictionary.takeAdded());
+        writeQueue.writeTransactions(receivedTransactions);
+        writeQueue.saveRollups(rollups.takeChanged());
 
-        Log.d(TAG, "Received server timestamp: " + accountDelta.getServerTimestamp());
-        Log.d(TAG, "Number of received transactions:         " + accountDelta.getAddedOrModifiedList().size());
+        // Save new server sync timestamp, but only after the received data are written. Otherwise they would not be received again if the application stopped before writing them.
+        writeQueue.runAfterWrites(new Runnable() {
+            @Override
+            public void run() {
+                PrefManager.setServerTimestamp(context, serverTimestamp);
+            }
+        });
+
+        Log.d(TAG, "Received server timestamp: " + serverTimestamp);
+        Log.d(TAG, "Number of received transactions:         " + decodedTransactions.size());
+        Log.d(TAG, "Number of kept local changes:            " + (decodedTransactions.size() - receivedTransactions.size()));
         Log.d(TAG, "Number of transactions to delete:        " + transactionsToDelete.size());
         Log.d(TAG, "Number of transactions to add or update: " + transactionsToInsertOrUpdate.size());
     }
@@ -257,27 +680,28 @@ public class DataModel {
      *
      * @param transaction Transaction
      */
-    public static void saveNewlyCreatedTransaction(Transaction transaction) {
+    public static synchronized void saveNewlyCreatedTransaction(Transaction transaction) {
         // Generate GUID and set flags
         transaction.setGuid(UUID.randomUUID().toString());
         transaction.setDeleted(false);
         transaction.setPending(true);
+        kindDictionary.intern(transaction);
 
         // Adjust balance
-        balance += transaction.getValue();
+        addToTotals(transaction);
 
         // Display and add to pending list for sync
-        pendingTransactions.add(transaction);
-        activeTransactions.add(transaction);
-
-        // Sort the displayed data by datetime
-        Collections.sort(activeTransactions, transactionComparator);
-
+        outbox.put(transaction, true);
+        int index = insertActiveTransaction(transaction);
+        if (index >= 0) {
+            changes.inserted(index, 1);
+        }
+        publishSnapshot();
 
         // Save the information to the database
-        dataSource.open();
-        dataSource.saveTranstaction(transaction);
-        dataSource.close();
+        writeQueue.saveKinds(kindDictionary.takeAdded());
+        writeQueue.saveTransaction(transaction);
+        writeQueue.saveRollups(rollups.takeChanged());
     }
 
     /**
@@ -286,50 +710,599 @@ public class DataModel {
      * @param oldTransaction Transaction
      * @param newTransaction Transaction
      */
-    public static void saveAlteredTransaction(Transaction oldTransaction, Transaction newTransaction) {
+    public static synchronized void saveAlteredTransaction(Transaction oldTransaction, Transaction newTransaction) {
         // Remove old transaction and adjust the balance
-        activeTransactions.remove(oldTransaction);
-        balance -= oldTransaction.getValue();
+        int oldIndex = indexOfActiveTransaction(oldTransaction.getGuid());
+        Transaction removed = oldIndex >= 0 ? removeActiveTransaction(oldIndex) : null;
+        removeFromTotals(removed != null ? removed : oldTransaction);
 
         // set additional data to the new transaction
         newTransaction.setGuid(oldTransaction.getGuid());
         newTransaction.setDeleted(false);
         newTransaction.setPending(true);
+        kindDictionary.intern(newTransaction);
 
         // Adjust the balance
-        balance += newTransaction.getValue();
-
-        // Display and add to pending list for sync
-        pendingTransactions.add(newTransaction);
-        activeTransactions.add(newTransaction);
+        addToTotals(newTransaction);
 
-        // Sort the displayed data by datetime
-        Collections.sort(activeTransactions, transactionComparator);
+        // Display and add to pending list for sync, it replaces the previous change of the transaction
+        outbox.put(newTransaction, false);
+        int newIndex = insertActiveTransaction(newTransaction);
+        if (oldIndex >= 0 && newIndex >= 0) {
+            changes.moved(oldIndex, newIndex);
+        } else if (oldIndex >= 0) {
+            changes.removed(oldIndex, 1);
+        } else if (newIndex >= 0) {
+            changes.inserted(newIndex, 1);
+        }
+        publishSnapshot();
 
         // Save the information to the database
-        dataSource.open();
-        dataSource.saveTranstaction(oldTransaction);
-        dataSource.close();
+        writeQueue.saveKinds(kindDictionary.takeAdded());
+        writeQueue.saveTransaction(newTransaction);
+        writeQueue.saveRollups(rollups.takeChanged());
     }
 
     /**
-     * Removes transaction from the budget list and adjusts balance
+     * Applies operations of the batch at once. The budget list is merged once, the balance and the pending list are updated in one pass
+     * and all changes are written to the database in one transaction, so k operations take O(n + k log k) instead of k separate changes.
+     * Deleted transactions are removed from the budget list and marked for deletion.
+     *
+     * @param batch Operations made by the user
+     */
+    public static synchronized void applyBatch(TransactionBatch batch) {
+        // Indexes of displayed transactions that have to be removed from the list and the last version of every changed transaction
+        List<Integer> indexesToRemove = new ArrayList<Integer>();
+        Map<String, Transaction> transactionsToDisplay = new HashMap<String, Transaction>();
+
+        // The last database write of every changed transaction
+        Map<String, Transaction> transactionsToSave = new HashMap<String, Transaction>();
+        Map<String, Transaction> transactionsToDelete = new HashMap<String, Transaction>();
+
+        for (TransactionBatch.Operation operation : batch.getOperations()) {
+            if (operation.getType() == TransactionBatch.Type.DELETE) {
+                // Transaction can still be in older snapshots, change a copy
+                Transaction deletedTransaction = new Transaction(removeBatchTransaction(operation.getOldTransaction(), indexesToRemove, transactionsToDisplay));
+                deletedTransaction.setDeleted(true);
+                deletedTransaction.setPending(true);
+
+                String guid = deletedTransaction.getGuid();
+                transactionsToSave.remove(guid);
+                if (outbox.put(deletedTransaction, false)) {
+                    transactionsToSave.put(guid, deletedTransaction);
+                } else {
+                    // Transaction was created after the last sync, there is nothing to send
+                    transactionsToDelete.put(guid, deletedTransaction);
+                }
+                continue;
+            }
+
+            Transaction transaction = operation.getNewTransaction();
+            boolean created = operation.getType() == TransactionBatch.Type.CREATE;
+            if (created) {
+                transaction.setGuid(UUID.randomUUID().toString());
+            } else {
+                removeBatchTransaction(operation.getOldTransaction(), indexesToRemove, transactionsToDisplay);
+                transaction.setGuid(operation.getOldTransaction().getGuid());
+            }
+            transaction.setDeleted(false);
+            transaction.setPending(true);
+            kindDictionary.intern(transaction);
+
+            addToTotals(transaction);
+            outbox.put(transaction, created);
+            transactionsToDisplay.put(transaction.getGuid(), transaction);
+            transactionsToDelete.remove(transaction.getGuid());
+            transactionsToSave.put(transaction.getGuid(), transaction);
+        }
+
+        // Sort only the changed transactions and merge them into the displayed list in one pass
+        List<Transaction> sortedTransactionsToDisplay = new ArrayList<Transaction>(transactionsToDisplay.size());
+        for (Transaction transaction : transactionsToDisplay.values()) {
+            if (isLoaded(transaction)) {
+                sortedTransactionsToDisplay.add(transaction);
+                activeGuids.put(transaction.getGuid(), transaction.getDate());
+            }
+        }
+        Collections.sort(sortedTransactionsToDisplay, transactionComparator);
+        mergeActiveTransactions(indexesToRemove, sortedTransactionsToDisplay);
+        publishSnapshot();
+
+        // Save the information to the database in one transaction
+        writeQueue.writeBatch(kindDictionary.takeAdded(), transactionsToSave.values(), transactionsToDelete.values(), rollups.takeChanged());
+
+        Log.d(TAG, "Applied batch of operations: " + batch.size());
+    }
+
+    /**
+     * Removes transaction from the budget list and adjusts balance. The removal waits for {@link #OnListReinsert(Transaction)} or {@link #setTransactionForDeletion(Transaction)}.
+     * Transaction which is not displayed any more was already changed by someone else and it is not removed.
      *
      * @param transaction Transaction
      */
-    public static void OnListRemove(Transaction transaction) {
-        balance -= transaction.getValue();
-        activeTransactions.remove(transaction);
+    public static synchronized void OnListRemove(Transaction transaction) {
+        int index = indexOfActiveTransaction(transaction.getGuid());
+        if (index < 0) {
+            return;
+        }
+        removeFromTotals(removeActiveTransaction(index));
+        removedGuids.add(transaction.getGuid());
+        changes.removed(index, 1);
+        publishSnapshot();
+    }
+
+    /**
+     * Puts transaction removed by {@link #OnListRemove(Transaction)} back to the budget list and ajusts balance. Its place is found by binary search on its date and GUID,
+     * the position it was removed from can be taken by other changes in the meantime. If the transaction was changed by a batch or by received data
+     * in the meantime, the later change is already displayed and nothing is done.
+     *
+     * @param transaction Transaction
+     */
+    public static synchronized void OnListReinsert(Transaction transaction) {
+        if (!removedGuids.remove(transaction.getGuid())) {
+            return;
+        }
+        addToTotals(transaction);
+        int index = insertActiveTransaction(transaction);
+        if (index >= 0) {
+            changes.inserted(index, 1);
+        }
+        publishSnapshot();
+    }
+
+    /**
+     * Publishes current state of the data as a new immutable snapshot and posts notification of listeners about changes since the previous one.
+     * Has to be called by the writer after every change of the displayed data. Listeners are called on the main thread in the order of the snapshots,
+     * after the writer released the lock.
+     */
+    private static void publishSnapshot() {
+        if (snapshot != null && snapshot.getBalance() != balance) {
+            changes.balanceChanged();
+        }
+        final DataSnapshot publishedSnapshot = new DataSnapshot(++version, balance, activeTransactions.freeze(), allLoaded);
+        final ChangeSet changeSet = changes.build();
+        snapshot = publishedSnapshot;
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (OnDataChangedListener listener : listeners) {
+                    listener.onDataChanged(publishedSnapshot, changeSet);
+                }
+            }
+        });
+    }
+
+    /**
+     * Adds transactions which are older than all loaded transactions to the end of the budget list.
+     *
+     * @param transactions Sorted transactions of the page
+     * @param boundary     The last transaction of the page in the database, the next page starts after it. Null if there are no more transactions.
+     */
+    private static void appendLoadedTransactions(List<Transaction> transactions, Transaction boundary) {
+        boolean complete = boundary == null;
+        changes.inserted(activeTransactions.size(), transactions.size());
+        activeTransactions.addAll(transactions);
+        for (Transaction transaction : transactions) {
+            activeGuids.put(transaction.getGuid(), transaction.getDate());
+        }
+        pageBoundary = boundary;
+
+        if (complete) {
+            allLoaded = true;
+            pageBoundary = null;
+        }
+    }
+
+    /**
+     * Loads transactions older than all loaded transactions from the database.
+     *
+     * @param limit Maximal number of loaded transactions, 0 for all of them
+     */
+    private static void loadOlderTransactions(int limit) {
+        // Older transactions can be changed by queued writes, their queued versions replace the stored ones, so the caller does not wait for the writes
+        Map<String, Transaction> uncommitted = writeQueue.getUncommittedTransactions();
+        List<Transaction> stored = dataSource.loadNotDeletedTransactionsPage(pageBoundary, limit);
+        Transaction boundary = limit == 0 || stored.size() < limit ? null : stored.get(stored.size() - 1);
+        List<Transaction> transactions = applyUncommitted(stored, uncommitted, pageBoundary, boundary);
+        Log.d(TAG, "Loaded older transactions: " + transactions.size());
+        appendLoadedTransactions(transactions, boundary);
+    }
+
+    /**
+     * Replaces stored transactions of a page with their versions which are not written yet. Uncommitted transactions which belong to the page are added,
+     * deleted ones and ones removed from the budget list are left out.
+     *
+     * @param stored      Sorted transactions of the page read from the database
+     * @param uncommitted Transactions which are not written yet by their GUID, see {@link WriteBehindQueue#getUncommittedTransactions()}
+     * @param after       Transaction before the page, null for the first page
+     * @param last        The last transaction of the page, null if the page reaches to the oldest transaction
+     * @return Sorted transactions of the page
+     */
+    private static List<Transaction> applyUncommitted(List<Transaction> stored, Map<String, Transaction> uncommitted, Transaction after, Transaction last) {
+        if (uncommitted.isEmpty() && removedGuids.isEmpty()) {
+            return stored;
+        }
+        List<Transaction> result = new ArrayList<Transaction>(stored.size());
+        for (Transaction transaction : stored) {
+            if (!uncommitted.containsKey(transaction.getGuid()) && !removedGuids.contains(transaction.getGuid())) {
+                result.add(transaction);
+            }
+        }
+        boolean added = false;
+        for (Transaction transaction : uncommitted.values()) {
+            if (!transaction.isDeleted() && !removedGuids.contains(transaction.getGuid()) && (after == null || transactionComparator.compare(transaction, after) > 0)
+                    && (last == null || transactionComparator.compare(transaction, last) <= 0)) {
+                result.add(transaction);
+                added = true;
+            }
+        }
+        if (added) {
+            Collections.sort(result, transactionComparator);
+        }
+        return result;
+    }
+
+    /**
+     * Reads transactions in the date range from the database, their versions which are not written yet replace the stored ones and transactions
+     * removed from the budget list are left out. Used for transactions which are not loaded, the budget list is not changed.
+     *
+     * @param from Start of the range (inclusive)
+     * @param to   End of the range (exclusive)
+     * @return Sorted transactions
+     */
+    private static List<Transaction> loadTransactionsInRange(long from, long to) {
+        Map<String, Transaction> uncommitted = writeQueue.getUncommittedTransactions();
+        List<Transaction> stored = dataSource.loadNotDeletedTransactionsInRange(from, to);
+        if (uncommitted.isEmpty() && removedGuids.isEmpty()) {
+            return stored;
+        }
+        List<Transaction> result = new ArrayList<Transaction>(stored.size());
+        for (Transaction transaction : stored) {
+            if (!uncommitted.containsKey(transaction.getGuid()) && !removedGuids.contains(transaction.getGuid())) {
+                result.add(transaction);
+            }
+        }
+        for (Transaction transaction : uncommitted.values()) {
+            if (!transaction.isDeleted() && !removedGuids.contains(transaction.getGuid()) && transaction.getDate() >= from && transaction.getDate() < to) {
+                result.add(transaction);
+            }
+        }
+        Collections.sort(result, transactionComparator);
+        return result;
+    }
+
+    /**
+     * Builds the kind index if it is not built yet. Loaded transactions are read from the budget list, the rest is streamed from the database,
+     * so the history is never held in memory at once.
+     */
+    private static void ensureKindIndex() {
+        if (kindIndex != null) {
+            return;
+        }
+        kindIndex = new KindIndex(kindDictionary);
+        int size = activeTransactions.size();
+        for (int i = 0; i < size; i++) {
+            kindIndex.add(activeTransactions.getKindId(i), activeTransactions.getDate(i), activeTransactions.getValue(i));
+        }
+        if (allLoaded) {
+            return;
+        }
+
+        // Queued versions of not loaded transactions replace the stored ones, the loaded ones are already counted.
+        // The scan reads in one database transaction, so a write committed meanwhile cannot make it skip a row or count it twice.
+        Map<String, Transaction> uncommitted = writeQueue.getUncommittedTransactions();
+        TransactionCursor transactions = dataSource.queryNotDeletedTransactions();
+        try {
+            while (transactions.hasNext()) {
+                Transaction transaction = transactions.next();
+                if (!isLoaded(transaction) && !uncommitted.containsKey(transaction.getGuid()) && !removedGuids.contains(transaction.getGuid())) {
+                    kindIndex.add(transaction.getKindId(), transaction.getDate(), transaction.getValue());
+                }
+            }
+        } finally {
+            transactions.close();
+        }
+        for (Transaction transaction : uncommitted.values()) {
+            if (!transaction.isDeleted() && !isLoaded(transaction) && !removedGuids.contains(transaction.getGuid())) {
+                kindIndex.add(transaction.getKindId(), transaction.getDate(), transaction.getValue());
+            }
+        }
+    }
+
+    /**
+     * Evicts the oldest months from the budget list while it is over the memory budget. The list has to stay a contiguous part of the history
+     * from the newest transaction, so the oldest loaded month, which is also the least recently used one, is always evicted first.
+     * Transactions the list was scrolled to are kept. Evicted transactions are loaded again with their pages, totals and indexes are not changed.
+     */
+    private static void evictOldMonths() {
+        if (memoryBudget <= 0) {
+            return;
+        }
+        int size = activeTransactions.size();
+        int minSize = Math.max(scrolledCount, 1);
+        int newSize = size;
+        while (newSize > memoryBudget) {
+            long monthStart = rollups.getPeriodStart(PeriodTotals.Period.MONTH, activeTransactions.getDate(newSize - 1));
+            int monthIndex = firstIndexNotNewerThan(rollups.getNextPeriodStart(PeriodTotals.Period.MONTH, monthStart) - 1);
+            if (monthIndex < minSize) {
+                break;
+            }
+            newSize = monthIndex;
+        }
+        if (newSize == size) {
+            return;
+        }
+
+        for (int i = newSize; i < size; i++) {
+            activeGuids.remove(activeTransactions.getGuid(i));
+        }
+        // The boundary is the only transaction created, its date and GUID are used for the next page
+        pageBoundary = activeTransactions.get(newSize - 1);
+        activeTransactions.removeFrom(newSize);
+        changes.removed(newSize, size - newSize);
+        allLoaded = false;
+        publishSnapshot();
+        Log.d(TAG, "Evicted old transactions: " + (size - newSize));
+    }
+
+    /**
+     * Decides whether all transactions not older than the date are loaded to the budget list.
+     *
+     * @param date Timestamp
+     * @return True if the oldest loaded transaction is older than the date or all transactions are loaded
+     */
+    private static boolean isLoadedSince(long date) {
+        return allLoaded || (pageBoundary != null && pageBoundary.getDate() < date);
+    }
+
+    /**
+     * Decides whether the transaction belongs to the loaded part of the list.
+     *
+     * @param transaction Transaction
+     * @return True if the transaction is not older than the oldest loaded transaction
+     */
+    private static boolean isLoaded(Transaction transaction) {
+        return allLoaded || (pageBoundary != null && transactionComparator.compare(transaction, pageBoundary) <= 0);
     }
 
     /**
-     * Puts transactions to the budget list at specific index and ajusts balance
+     * Finds received transactions which are stored in the database but not loaded yet. Transactions removed from the budget list by the user are left out,
+     * they are already out of the totals.
+     *
+     * @param receivedTransactions Transactions received from the server
+     * @return Stored transactions by their GUID
+     */
+    private static Map<String, Transaction> findNotLoadedTransactions(List<Transaction> receivedTransactions) {
+        Map<String, Transaction> result = new HashMap<String, Transaction>();
+        if (allLoaded) {
+            return result;
+        }
+        Set<String> guids = new HashSet<String>();
+        for (Transaction transaction : receivedTransactions) {
+            if (!activeGuids.contains(transaction.getGuid()) && !removedGuids.contains(transaction.getGuid())) {
+                guids.add(transaction.getGuid());
+            }
+        }
+        if (guids.isEmpty()) {
+            return result;
+        }
+
+        // Versions which are not written yet replace the stored ones, so the caller does not wait for the writes
+        Map<String, Transaction> uncommitted = writeQueue.getUncommittedTransactions();
+        for (Transaction transaction : dataSource.loadNotDeletedTransactions(guids)) {
+            if (!uncommitted.containsKey(transaction.getGuid())) {
+                result.put(transaction.getGuid(), transaction);
+            }
+        }
+        for (String guid : guids) {
+            Transaction transaction = uncommitted.get(guid);
+            if (transaction != null && !transaction.isDeleted()) {
+                result.put(guid, transaction);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Adds value of the displayed transaction to the balance, to the period totals and to the kind index.
      *
-     * @param position    Index for the insertion
      * @param transaction Transaction
      */
-    public static void OnListReinsert(int position, Transaction transaction) {
+    private static void addToTotals(Transaction transaction) {
         balance += transaction.getValue();
-        activeTransactions.add(position, transaction);
+        rollups.add(transaction.getDate(), transaction.getValue());
+        if (kindIndex != null) {
+            kindIndex.add(transaction.getKindId(), transaction.getDate(), transaction.getValue());
+        }
+    }
+
+    /**
+     * Subtracts value of the transaction which is no more displayed from the balance, from the period totals and from the kind index.
+     *
+     * @param transaction Transaction
+     */
+    private static void removeFromTotals(Transaction transaction) {
+        balance -= transaction.getValue();
+        rollups.remove(transaction.getDate(), transaction.getValue());
+        if (kindIndex != null) {
+            kindIndex.remove(transaction.getKindId(), transaction.getDate(), transaction.getValue());
+        }
+    }
+
+    /**
+     * Finds the first position in the budget list with transaction not newer than the date. The list is sorted from the newest, so binary search is used.
+     *
+     * @param date Timestamp
+     * @return Index in the list, size of the list if all transactions are newer
+     */
+    private static int firstIndexNotNewerThan(long date) {
+        int low = 0;
+        int high = activeTransactions.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (activeTransactions.getDate(middle) > date) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Adds displayed transactions in the date range to the totals by kind. Loaded transactions are read from the budget list, others from the database.
+     *
+     * @param from   Start of the range (inclusive)
+     * @param to     End of the range (exclusive)
+     * @param totals Totals by kind to add to
+     */
+    private static void addRangeTotals(long from, long to, Map<Integer, KindIndex.KindTotals> totals) {
+        if (from >= to) {
+            return;
+        }
+        if (!isLoadedSince(from)) {
+            for (Transaction transaction : loadTransactionsInRange(from, to)) {
+                addKindTotals(totals, transaction.getKindId(), transaction.getValue());
+            }
+            return;
+        }
+        // Columns are read directly, so no transaction is created
+        for (int i = firstIndexNotNewerThan(to - 1); i < activeTransactions.size() && activeTransactions.getDate(i) >= from; i++) {
+            addKindTotals(totals, activeTransactions.getKindId(i), activeTransactions.getValue(i));
+        }
+    }
+
+    /**
+     * Adds transaction value to the totals of its kind.
+     *
+     * @param totals Totals by kind to add to
+     * @param kindId Kind id of the transaction
+     * @param value  Value in minor currency units
+     */
+    private static void addKindTotals(Map<Integer, KindIndex.KindTotals> totals, int kindId, long value) {
+        KindIndex.KindTotals kindTotals = totals.get(kindId);
+        if (kindTotals == null) {
+            kindTotals = new KindIndex.KindTotals(kindId, kindDictionary.getName(kindId));
+            totals.put(kindId, kindTotals);
+        }
+        kindTotals.add(value, 1);
+    }
+
+    /**
+     * Inserts transaction to the budget list at the place given by its date, so the list stays sorted, and adds it to the GUID index.
+     * Transaction older than the loaded ones is not inserted, it is loaded later with its page.
+     *
+     * @param transaction Transaction
+     * @return Index of the inserted transaction, -1 if it was not inserted
+     */
+    private static int insertActiveTransaction(Transaction transaction) {
+        if (!isLoaded(transaction)) {
+            return -1;
+        }
+        int index = activeTransactions.binarySearch(transaction.getDate(), transaction.getGuid());
+        activeGuids.put(transaction.getGuid(), transaction.getDate());
+        if (index >= 0) {
+            // Transaction is already displayed, replace it
+            activeTransactions.set(index, transaction);
+            changes.changed(index);
+            return -1;
+        }
+        activeTransactions.add(-index - 1, transaction);
+        return -index - 1;
+    }
+
+    /**
+     * Merges sorted transactions into the sorted budget list and leaves out transactions at the given indexes. The merge visits every transaction once, so it takes linear time.
+     * GUID index is not changed.
+     *
+     * @param indexesToRemove    Indexes of displayed transactions that are removed
+     * @param sortedTransactions Transactions sorted by the transaction comparator, none of them can be displayed after the removal
+     */
+    private static void mergeActiveTransactions(List<Integer> indexesToRemove, List<Transaction> sortedTransactions) {
+        int[] sortedIndexes = new int[indexesToRemove.size()];
+        for (int i = 0; i < sortedIndexes.length; i++) {
+            sortedIndexes[i] = indexesToRemove.get(i);
+        }
+        Arrays.sort(sortedIndexes);
+        activeTransactions.merge(sortedIndexes, sortedTransactions);
+
+        // Removals from the end keep the lower indexes valid, insertions in the list order land at their final positions
+        for (int i = sortedIndexes.length - 1; i >= 0; i--) {
+            changes.removed(sortedIndexes[i], 1);
+        }
+        for (Transaction transaction : sortedTransactions) {
+            changes.inserted(activeTransactions.binarySearch(transaction.getDate(), transaction.getGuid()), 1);
+        }
+    }
+
+    /**
+     * Finds transaction with specific GUID in the budget list.
+     *
+     * @param guid GUID of the transaction
+     * @return Index of the transaction or -1 if there is no such transaction displayed
+     */
+    private static int indexOfActiveTransaction(String guid) {
+        long date = activeGuids.getDate(guid);
+        if (date == GuidIndex.NO_DATE) {
+            return -1;
+        }
+        int index = activeTransactions.binarySearch(date, guid);
+        return index >= 0 ? index : -1;
+    }
+
+    /**
+     * Removes transaction at the index from the budget list and from the GUID index.
+     *
+     * @param index Index of the transaction
+     * @return Removed transaction
+     */
+    private static Transaction removeActiveTransaction(int index) {
+        Transaction removed = activeTransactions.remove(index);
+        activeGuids.remove(removed.getGuid());
+        return removed;
+    }
+
+    /**
+     * Takes the current version of the transaction changed by a batch out of the totals. Displayed transaction is only marked for removal,
+     * the list is not changed until the merge, so the indexes stay valid.
+     *
+     * @param transaction           Transaction known to the caller
+     * @param indexesToRemove       Indexes of displayed transactions that are removed by the merge
+     * @param transactionsToDisplay Transactions changed earlier in the batch by their GUID
+     * @return The current version of the transaction
+     */
+    private static Transaction removeBatchTransaction(Transaction transaction, List<Integer> indexesToRemove, Map<String, Transaction> transactionsToDisplay) {
+        Transaction current = transactionsToDisplay.remove(transaction.getGuid());
+        if (current == null) {
+            long date = activeGuids.remove(transaction.getGuid());
+            if (date != GuidIndex.NO_DATE) {
+                int index = activeTransactions.binarySearch(date, transaction.getGuid());
+                current = activeTransactions.get(index);
+                indexesToRemove.add(index);
+            } else if (removedGuids.remove(transaction.getGuid())) {
+                // Transaction removed by the user and waiting for undo is already out of the totals. The batch takes it over, the undo does nothing.
+                return transaction;
+            } else {
+                // Transaction is not loaded, the caller's version is used
+                current = transaction;
+            }
+        }
+        removeFromTotals(current);
+        return current;
+    }
+
+    /**
+     * Listener notified about changes of the data. It is called on the main thread after the change, when the data model is not locked any more,
+     * so it can update views and call the data model.
+     */
+    public interface OnDataChangedListener {
+
+        /**
+         * Gets called after a new snapshot is published.
+         *
+         * @param snapshot New snapshot of the data
+         * @param changes  Changes of the budget list since the previous snapshot
+         */
+        public void onDataChanged(DataSnapshot snapshot, ChangeSet changes);
     }
 }
\ No newline at end of file
@@ -33,6 +33,15 @@ public class MainActivity extends ActionBarActivity implements BudgetListFragmen
         }
     }
 
+    @Override
+    protected void onStop() {
+        // Application can be killed when it is not visible, make sure all changes are written
+        DataModel.flush();
+        // Old transactions the list was scrolled to are not needed until it is visible again
+        DataModel.releaseMemory();
+        super.onStop();
+    }
+
     /**
      * Callback registers that user clicked on a transaction in the budget list and displays transactions detail
      *
@@ -0,0 +1,68 @@
+package cz.avast.personalbudget;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Helper class for money values. Money is held in minor currency units (hundredths) in a primitive long, so sums and differences are exact.
+ */
+public class Money {
+
+    /**
+     * Number of minor units in one major currency unit
+     */
+    public static final int MINOR_UNITS = 100;
+
+    /**
+     * Number of decimal places of the minor units
+     */
+    private static final int SCALE = 2;
+
+    /**
+     * Converts value in major units (as sent by the backend server) to minor units. The value is rounded to the nearest minor unit.
+     *
+     * @param value Value in major units
+     * @return Value in minor units
+     */
+    public static long fromDouble(double value) {
+        return Math.round(value * MINOR_UNITS);
+    }
+
+    /**
+     * Converts value in minor units to major units (as expected by the backend server and for displaying).
+     *
+     * @param value Value in minor units
+     * @return Value in major units
+     */
+    public static double toDouble(long value) {
+        return (double) value / MINOR_UNITS;
+    }
+
+    /**
+     * Parses value in major units typed by the user without going through floating point.
+     *
+     * @param text Value in major units, e.g. "12.5"
+     * @return Value in minor units
+     * @throws NumberFormatException The text is not a valid number
+     */
+    public static long parse(String text) throws NumberFormatException {
+        try {
+            return new BigDecimal(text.trim()).setScale(SCALE, RoundingMode.HALF_UP).movePointRight(SCALE).longValueExact();
+        } catch (ArithmeticException e) {
+            throw new NumberFormatException(text);
+        }
+    }
+
+    /**
+     * Formats value in minor units as plain number in major units, e.g. "-12.5"
+     *
+     * @param value Value in minor units
+     * @return Formatted value
+     */
+    public static String toPlainString(long value) {
+        if (value % MINOR_UNITS == 0) {
+            return String.valueOf(value / MINOR_UNITS);
+        }
+        return BigDecimal.valueOf(value, SCALE).stripTrailingZeros().toPlainString();
+    }
+}
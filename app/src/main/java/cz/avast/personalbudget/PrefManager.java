@@ -13,6 +13,11 @@ public class PrefManager {
      */
     private static final String SERVER_TIMESTAMP = "SERVER_TIMESTAMP";
 
+    /**
+     * Constant for saving time zone of the persisted period totals
+     */
+    private static final String ROLLUPS_TIME_ZONE = "ROLLUPS_TIME_ZONE";
+
     /**
      * Loads server timestamp from shared preferences
      *
@@ -34,4 +39,25 @@ public class PrefManager {
         return PreferenceManager.getDefaultSharedPreferences(context).edit().putLong(SERVER_TIMESTAMP, timestamp).commit();
     }
 
+    /**
+     * Loads ID of the time zone the persisted period totals were computed in
+     *
+     * @param context Context
+     * @return Time zone ID, null if the totals were never persisted
+     */
+    public static String getRollupsTimeZone(Context context) {
+        return PreferenceManager.getDefaultSharedPreferences(context).getString(ROLLUPS_TIME_ZONE, null);
+    }
+
+    /**
+     * Saves ID of the time zone the persisted period totals were computed in
+     *
+     * @param context    Context
+     * @param timeZoneId Time zone ID
+     * @return Whether the save was successful
+     */
+    public static boolean setRollupsTimeZone(Context context, String timeZoneId) {
+        return PreferenceManager.getDefaultSharedPreferences(context).edit().putString(ROLLUPS_TIME_ZONE, timeZoneId).commit();
+    }
+
 }
\ No newline at end of file
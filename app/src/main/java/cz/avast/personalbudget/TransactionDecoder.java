@@ -0,0 +1,185 @@
+package cz.avast.personalbudget;
+
+import android.util.Log;
+
+import com.bean_keeper.Proto;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import cz.avast.personalbudget.entity.Transaction;
+
+/**
+ * Converts transactions received from the backend server to {@link Transaction} objects. Large responses (e.g. the first sync) are split
+ * to chunks which are converted in parallel on all cores. Decoded transactions keep the order of the response and their kinds are not interned,
+ * the data model does it when it merges them. Decoding waits for the chunks, so it must not be called on the main thread.
+ */
+public final class TransactionDecoder {
+
+    /**
+     * String constant for logging
+     */
+    public static final String TAG = TransactionDecoder.class.getSimpleName();
+
+    /**
+     * Minimal number of transactions in a chunk, smaller responses are not worth the threads
+     */
+    private static final int MIN_CHUNK_SIZE = 2000;
+
+    /**
+     * Number of threads decoding the chunks
+     */
+    private static final int THREAD_COUNT = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Time in seconds the decoding threads are kept alive without work, syncs are rare, so the threads do not live between them
+     */
+    private static final long KEEP_ALIVE = 10;
+
+    /**
+     * Threads decoding the chunks, created on the first large response
+     */
+    private static ThreadPoolExecutor executor;
+
+    private TransactionDecoder() {
+    }
+
+    /**
+     * Converts received transactions. Chunks are decoded in parallel if there are enough of them.
+     *
+     * @param prTransactions Transactions received from the server
+     * @return Decoded transactions in the same order
+     */
+    public static List<Transaction> decode(List<Proto.Transaction> prTransactions) {
+        int size = prTransactions.size();
+        int chunkCount = Math.min(THREAD_COUNT, size / MIN_CHUNK_SIZE);
+        Transaction[] result = new Transaction[size];
+        if (chunkCount <= 1) {
+            decode(prTransactions, result, 0, size);
+            return Arrays.asList(result);
+        }
+
+        // Every chunk writes to its own part of the result, so no merging is needed
+        List<Future<?>> futures = new ArrayList<Future<?>>(chunkCount);
+        ExecutorService executor = getExecutor();
+        for (int chunk = 0; chunk < chunkCount; chunk++) {
+            futures.add(executor.submit(new DecodeTask(prTransactions, result, (int) ((long) size * chunk / chunkCount), (int) ((long) size * (chunk + 1) / chunkCount))));
+        }
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            // Finish the work on this thread into a new array, the chunks may still be running
+            Thread.currentThread().interrupt();
+            for (Future<?> future : futures) {
+                future.cancel(false);
+            }
+            result = new Transaction[size];
+            decode(prTransactions, result, 0, size);
+            return Arrays.asList(result);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Decoding of received transactions failed", e.getCause());
+        }
+        Log.d(TAG, "Decoded transactions in chunks: " + chunkCount);
+        return Arrays.asList(result);
+    }
+
+    /**
+     * Converts one received transaction.
+     *
+     * @param prTransaction Transaction received from the server
+     * @return New transaction, it is not pending
+     */
+    public static Transaction decode(Proto.Transaction prTransaction) {
+        Transaction transaction = new Transaction();
+        transaction.setGuid(prTransaction.getGuid());
+        transaction.setValue(Money.fromDouble(prTransaction.getValue()));
+        transaction.setDate(prTransaction.getDate());
+        transaction.setKind(prTransaction.getKind());
+        transaction.setDeleted(prTransaction.getDeleted());
+        transaction.setPending(false);
+        return transaction;
+    }
+
+    /**
+     * Converts part of the received transactions.
+     *
+     * @param prTransactions Transactions received from the server
+     * @param result         Array for the decoded transactions
+     * @param from           The first index (inclusive)
+     * @param to             The last index (exclusive)
+     */
+    private static void decode(List<Proto.Transaction> prTransactions, Transaction[] result, int from, int to) {
+        for (int i = from; i < to; i++) {
+            result[i] = decode(prTransactions.get(i));
+        }
+    }
+
+    /**
+     * Returns the decoding threads, they are created on demand and stop when they are idle.
+     *
+     * @return Executor service
+     */
+    private static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = new ThreadPoolExecutor(THREAD_COUNT, THREAD_COUNT, KEEP_ALIVE, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "budget-decode");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            // Idle threads stop, so the pool does not need to be shut down
+            executor.allowCoreThreadTimeOut(true);
+        }
+        return executor;
+    }
+
+    /**
+     * Task decoding one chunk of the received transactions
+     */
+    private static class DecodeTask implements Runnable {
+
+        /**
+         * Transactions received from the server
+         */
+        private final List<Proto.Transaction> prTransactions;
+
+        /**
+         * Array for the decoded transactions shared by all chunks
+         */
+        private final Transaction[] result;
+
+        /**
+         * The first index of the chunk (inclusive)
+         */
+        private final int from;
+
+        /**
+         * The last index of the chunk (exclusive)
+         */
+        private final int to;
+
+        DecodeTask(List<Proto.Transaction> prTransactions, Transaction[] result, int from, int to) {
+            this.prTransactions = prTransactions;
+            this.result = result;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public void run() {
+            decode(prTransactions, result, from, to);
+        }
+    }
+}
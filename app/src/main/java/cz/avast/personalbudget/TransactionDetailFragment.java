@@ -189,7 +189,7 @@ public class TransactionDetailFragment extends Fragment {
      * @param transaction Transaction
      */
     private void fillData(Transaction transaction) {
-        double value = transaction.getValue();
+        long value = transaction.getValue();
         // Check the right radio button
         if (value < 0) {
             value = value * -1;
@@ -199,7 +199,7 @@ public class TransactionDetailFragment extends Fragment {
             radioIn.setChecked(true);
             radioOut.setChecked(false);
         }
-        editValue.setText(String.valueOf(value));
+        editValue.setText(Money.toPlainString(value));
         editKind.setText(transaction.getKind());
 
         // Set date and time to the date and time forms
@@ -219,9 +219,9 @@ public class TransactionDetailFragment extends Fragment {
             newTransaction.setKind(editKind.getText().toString());
             newTransaction.setDate(calendar.getTimeInMillis());
             if (radioIn.isChecked()) {
-                newTransaction.setValue(Double.valueOf(editValue.getText().toString()));
+                newTransaction.setValue(Money.parse(editValue.getText().toString()));
             } else {
-                newTransaction.setValue(Double.valueOf(editValue.getText().toString()) * -1);
+                newTransaction.setValue(Money.parse(editValue.getText().toString()) * -1);
             }
 
             if (oldTransaction == null) {
@@ -270,7 +270,7 @@ public class TransactionDetailFragment extends Fragment {
         boolean ok = true;
 
         String formValue = editValue.getText().toString();
-        if (formValue.equals("") || Double.valueOf(formValue) <= 0) {
+        if (formValue.equals("") || Money.parse(formValue) <= 0) {
             // Set color to red indicating error
             textValue.setTextColor(getResources().getColor(R.color.red));
             ok = false;
@@ -0,0 +1,47 @@
+package cz.avast.personalbudget.db;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteCursor;
+import android.database.sqlite.SQLiteCursorDriver;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQuery;
+
+/**
+ * Creates cursors of a query with bound arguments of any type. {@link SQLiteDatabase#query} binds only text arguments, so a packed GUID would have
+ * to be written into the SQL as a blob literal and every query would be a new statement missing the statement cache.
+ */
+class BoundCursorFactory implements SQLiteDatabase.CursorFactory {
+
+    /**
+     * Arguments of the query, byte arrays are bound as blobs, numbers as integers and other objects as text
+     */
+    private final Object[] args;
+
+    /**
+     * Creates factory binding the arguments.
+     *
+     * @param args Arguments of the query in the order of their placeholders
+     */
+    BoundCursorFactory(Object[] args) {
+        this.args = args;
+    }
+
+    @SuppressWarnings("deprecation")
+    @Override
+    public Cursor newCursor(SQLiteDatabase db, SQLiteCursorDriver masterQuery, String editTable, SQLiteQuery query) {
+        for (int i = 0; i < args.length; i++) {
+            Object arg = args[i];
+            if (arg == null) {
+                query.bindNull(i + 1);
+            } else if (arg instanceof byte[]) {
+                query.bindBlob(i + 1, (byte[]) arg);
+            } else if (arg instanceof Number) {
+                query.bindLong(i + 1, ((Number) arg).longValue());
+            } else {
+                query.bindString(i + 1, arg.toString());
+            }
+        }
+        // The constructor without the database is available only since Android 3.0
+        return new SQLiteCursor(db, masterQuery, editTable, query);
+    }
+}
@@ -3,226 +3,677 @@ package cz.avast.personalbudget.db;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
 import android.util.Log;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
+import cz.avast.personalbudget.entity.PeriodTotals;
 import cz.avast.personalbudget.entity.Transaction;
+import cz.avast.personalbudget.model.KindDictionary;
+import cz.avast.personalbudget.model.PackedGuid;
 
 /**
  * Class for easier manipulation with the database
+ * <p/>
+ * Writes are serialized by the lock of the data source and run in database transactions. Reads are not synchronized and do not open a transaction,
+ * so with write-ahead logging (Android 3.0 and newer) SQLite runs them on pooled reader connections concurrently with the writer and they see
+ * the last committed state. Without write-ahead logging the database serializes reads and writes itself. Streamed scans of all transactions
+ * are the exception, they read in a transaction and hold the writer until they are closed, see {@link TransactionCursor}.
  * Created by mastajner on 04/04/14.
  */
 public class BudgetDataSource {
 
     /**
-     * Instance of a database.
+     * Maximal number of arguments bound to one statement. SQLite allows 999 of them.
      */
-    private SQLiteDatabase database;
+    private static final int MAX_BOUND_ARGUMENTS = 500;
+
+    /**
+     * Columns of the transaction queries in the order read by {@link TransactionCursor}. The last one says whether the GUID is stored as a packed blob.
+     */
+    static final String[] TRANSACTION_COLUMNS = {MySQLiteHelper.COLUMN_GUID, MySQLiteHelper.COLUMN_VALUE, MySQLiteHelper.COLUMN_DATE, MySQLiteHelper.COLUMN_KIND_ID,
+            MySQLiteHelper.COLUMN_DELETED, MySQLiteHelper.COLUMN_PENDING, "typeof(" + MySQLiteHelper.COLUMN_GUID + ") = 'blob'"};
+
+    /**
+     * Inserts one transaction unless its GUID is already stored, arguments are bound by {@link #bindTransaction(SQLiteStatement, Transaction)}
+     */
+    private static final String SQL_INSERT_TRANSACTION = "INSERT OR IGNORE INTO " + MySQLiteHelper.TABLE_TRANSACTIONS + " (" + MySQLiteHelper.COLUMN_GUID + ", "
+            + MySQLiteHelper.COLUMN_VALUE + ", " + MySQLiteHelper.COLUMN_DATE + ", " + MySQLiteHelper.COLUMN_KIND_ID + ", " + MySQLiteHelper.COLUMN_DELETED + ", "
+            + MySQLiteHelper.COLUMN_PENDING + ") VALUES (?1, ?2, ?3, ?4, ?5, ?6)";
+
+    /**
+     * Updates one stored transaction in place, so it keeps its rowid. Arguments are numbered like in {@link #SQL_INSERT_TRANSACTION}, so they are bound the same way.
+     */
+    private static final String SQL_UPDATE_TRANSACTION = "UPDATE " + MySQLiteHelper.TABLE_TRANSACTIONS + " SET " + MySQLiteHelper.COLUMN_VALUE + " = ?2, "
+            + MySQLiteHelper.COLUMN_DATE + " = ?3, " + MySQLiteHelper.COLUMN_KIND_ID + " = ?4, " + MySQLiteHelper.COLUMN_DELETED + " = ?5, "
+            + MySQLiteHelper.COLUMN_PENDING + " = ?6 WHERE " + MySQLiteHelper.COLUMN_GUID + " = ?1";
+
+    /**
+     * Removes the set of transactions, followed by the GUID IN-list
+     */
+    private static final String SQL_DELETE_TRANSACTIONS_IN = "DELETE FROM " + MySQLiteHelper.TABLE_TRANSACTIONS + " WHERE " + MySQLiteHelper.COLUMN_GUID + " IN ";
+
+    /**
+     * Clears pending flag of the set of transactions, followed by the GUID IN-list
+     */
+    private static final String SQL_CLEAR_PENDING_IN = "UPDATE " + MySQLiteHelper.TABLE_TRANSACTIONS + " SET " + MySQLiteHelper.COLUMN_PENDING + " = 0 WHERE "
+            + MySQLiteHelper.COLUMN_GUID + " IN ";
+
+    /**
+     * Inserts or replaces one period totals
+     */
+    private static final String SQL_UPSERT_ROLLUP = "INSERT OR REPLACE INTO " + MySQLiteHelper.TABLE_ROLLUPS + " (" + MySQLiteHelper.COLUMN_PERIOD + ", "
+            + MySQLiteHelper.COLUMN_START + ", " + MySQLiteHelper.COLUMN_INCOME + ", " + MySQLiteHelper.COLUMN_EXPENSE + ", " + MySQLiteHelper.COLUMN_COUNT
+            + ") VALUES (?, ?, ?, ?, ?)";
+
+    /**
+     * Removes one period totals
+     */
+    private static final String SQL_DELETE_ROLLUP = "DELETE FROM " + MySQLiteHelper.TABLE_ROLLUPS + " WHERE " + MySQLiteHelper.COLUMN_PERIOD + " = ? AND "
+            + MySQLiteHelper.COLUMN_START + " = ?";
+
+    /**
+     * Instance of a database. It is read by readers without the lock.
+     */
+    private volatile SQLiteDatabase database;
 
     /**
      * Instance of a database helper which provides access to the database and tables.
      */
     private MySQLiteHelper dbHelper;
 
+    /**
+     * Dictionary of transaction kinds. Transactions refer to their kind by id, loaded transactions get the shared kind instance from the dictionary.
+     */
+    private final KindDictionary kinds;
+
+    /**
+     * Compiled {@link #SQL_INSERT_TRANSACTION}. Statements are compiled when the connection is opened and reused for every row.
+     */
+    private SQLiteStatement insertTransactionStatement;
+
+    /**
+     * Compiled {@link #SQL_UPDATE_TRANSACTION}
+     */
+    private SQLiteStatement updateTransactionStatement;
+
+    /**
+     * Compiled {@link #SQL_UPSERT_ROLLUP}
+     */
+    private SQLiteStatement upsertRollupStatement;
+
+    /**
+     * Compiled {@link #SQL_DELETE_ROLLUP}
+     */
+    private SQLiteStatement deleteRollupStatement;
+
     /**
      * BudgetDataSource constructor
      *
      * @param context Context
+     * @param kinds   Dictionary of transaction kinds
      */
-    public BudgetDataSource(Context context) {
+    public BudgetDataSource(Context context, KindDictionary kinds) {
         // Get database instance
         dbHelper = new MySQLiteHelper(context);
+        this.kinds = kinds;
     }
 
     /**
-     * Opens the database for writing.
+     * Opens the database connection. The connection stays open for the lifetime of the process, so the file is opened and configured only once.
+     * Calling it on an open connection does nothing.
      *
      * @throws SQLException The database cannot be opened for writing
      */
-    public void open() throws SQLException {
+    public synchronized void open() throws SQLException {
+        if (database != null && database.isOpen()) {
+            return;
+        }
         Log.i(BudgetDataSource.class.getName(), "Opening DB");
         database = dbHelper.getWritableDatabase();
+
+        insertTransactionStatement = database.compileStatement(SQL_INSERT_TRANSACTION);
+        updateTransactionStatement = database.compileStatement(SQL_UPDATE_TRANSACTION);
+        upsertRollupStatement = database.compileStatement(SQL_UPSERT_ROLLUP);
+        deleteRollupStatement = database.compileStatement(SQL_DELETE_ROLLUP);
     }
 
     /**
-     * Closes the database after writing.
+     * Closes the database connection and its reader connections. Call it only when no more reads or writes will come, e.g. when the data model is shut down.
      */
-    public void close() {
+    public synchronized void close() {
         Log.i(BudgetDataSource.class.getName(), "Closing DB");
+        if (database != null) {
+            insertTransactionStatement.close();
+            updateTransactionStatement.close();
+            upsertRollupStatement.close();
+            deleteRollupStatement.close();
+        }
         dbHelper.close();
+        database = null;
     }
 
     /**
-     * Saves transaction into the database.
+     * Saves List of transactions to the database. A new transaction is inserted, a stored one is updated in place. Unlike INSERT OR REPLACE
+     * the update keeps the rowid, so the row is not deleted and inserted again and rows keep their place in the table.
      *
-     * @param transaction Transaction
+     * @param transactions List of transactions
      */
-    public synchronized void saveTranstaction(Transaction transaction) {
+    public synchronized void saveTranstactions(List<Transaction> transactions) {
         database.beginTransaction();
 
-        // Prepare data for saving
-        ContentValues values = transactionToContentValues(transaction);
-
-        // Insert into the database
-        database.insertWithOnConflict(MySQLiteHelper.TABLE_TRANSACTIONS, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+        for (Transaction transaction : transactions) {
+            // Insert into the database, the compiled statements are only bound again
+            bindTransaction(insertTransactionStatement, transaction);
+            if (insertTransactionStatement.executeInsert() == -1) {
+                // The GUID is already stored, the insert was ignored
+                bindTransaction(updateTransactionStatement, transaction);
+                updateTransactionStatement.execute();
+            }
+        }
 
         database.setTransactionSuccessful();
         database.endTransaction();
     }
 
     /**
-     * Saves List of transactions to the database
+     * Saves new kinds, saves and removes transactions and saves period totals in one database transaction, so either all changes are written or none of them.
      *
-     * @param transactions List of transactions
+     * @param newKinds            New kinds by their id
+     * @param transactionsToSave  Transactions to save
+     * @param guidsToDelete       GUIDs of transactions to remove
+     * @param guidsToClearPending GUIDs of stored transactions which are no more pending for sync
+     * @param rollups             Period totals to save
      */
-    public synchronized void saveTranstactions(List<Transaction> transactions) {
+    public synchronized void applyChanges(Map<Integer, String> newKinds, List<Transaction> transactionsToSave, Collection<String> guidsToDelete, Collection<String> guidsToClearPending,
+                                          Collection<PeriodTotals> rollups) {
         database.beginTransaction();
+        try {
+            saveKinds(newKinds);
+            saveTranstactions(transactionsToSave);
+            deleteTransactionsByGuid(guidsToDelete);
+            clearPending(guidsToClearPending);
+            saveRollups(rollups);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+    }
 
+    /**
+     * Removes list od transactions from database.
+     *
+     * @param transactions List of transactions
+     */
+    public synchronized void deleteTransactions(List<Transaction> transactions) {
+        List<String> guids = new ArrayList<String>(transactions.size());
         for (Transaction transaction : transactions) {
+            guids.add(transaction.getGuid());
+        }
+        deleteTransactionsByGuid(guids);
+    }
 
-            // Prepare data for saving
-            ContentValues values = transactionToContentValues(transaction);
+    /**
+     * Removes the set of transactions from the database. It takes one statement per {@link #MAX_BOUND_ARGUMENTS} GUIDs.
+     *
+     * @param guids GUIDs of the transactions
+     */
+    public synchronized void deleteTransactionsByGuid(Collection<String> guids) {
+        executeForGuids(SQL_DELETE_TRANSACTIONS_IN, guids);
+    }
 
-            // Insert into the database
-            database.insertWithOnConflict(MySQLiteHelper.TABLE_TRANSACTIONS, null, values, SQLiteDatabase.CONFLICT_REPLACE);
-        }
+    /**
+     * Clears pending flag of the set of stored transactions after they were synced. It takes one statement per {@link #MAX_BOUND_ARGUMENTS} GUIDs.
+     *
+     * @param guids GUIDs of the transactions
+     */
+    public synchronized void clearPending(Collection<String> guids) {
+        executeForGuids(SQL_CLEAR_PENDING_IN, guids);
+    }
 
-        database.setTransactionSuccessful();
-        database.endTransaction();
+    /**
+     * Selects all transactions from the database.
+     *
+     * @return List of transactions
+     */
+    public List<Transaction> loadTransactions() {
+        return toList(queryTransactions());
     }
 
     /**
-     * Removes transaction from database.
+     * Iterates through all transactions in the database from the newest without loading them to memory at once.
      *
-     * @param transaction Transaction
+     * @return Iterator, it has to be closed if it is not read to the end
      */
-    public synchronized void deleteTransaction(Transaction transaction) {
-        database.beginTransaction();
+    public TransactionCursor queryTransactions() {
+        return new TransactionCursor(database.query(MySQLiteHelper.TABLE_TRANSACTIONS, TRANSACTION_COLUMNS, null, null, null, null, MySQLiteHelper.COLUMN_DATE + " DESC"), kinds);
+    }
 
-        // Removes from database
-        database.delete(MySQLiteHelper.TABLE_TRANSACTIONS, MySQLiteHelper.COLUMN_GUID + " = \"" + transaction.getGuid() + "\"", null);
+    /**
+     * Selects from the database all transactions, that are not marked as deleted.
+     *
+     * @return List of transactions
+     */
+    public List<Transaction> loadNotDeletedTransactions() {
+        return toList(queryNotDeletedTransactions());
+    }
 
-        database.setTransactionSuccessful();
-        database.endTransaction();
+    /**
+     * Iterates through transactions, that are not marked as deleted, from the newest without loading them to memory at once. The query runs
+     * in a database transaction, so all rows come from the same state of the database even if they do not fit into one cursor window.
+     * Writes wait until the iterator is closed.
+     *
+     * @return Iterator, it has to be closed if it is not read to the end. It has to be read and closed on the calling thread.
+     */
+    public TransactionCursor queryNotDeletedTransactions() {
+        beginReadTransaction();
+        try {
+            return new TransactionCursor(database.query(MySQLiteHelper.TABLE_TRANSACTIONS, TRANSACTION_COLUMNS, MySQLiteHelper.COLUMN_DELETED + " = 0 ", null, null, null,
+                    MySQLiteHelper.COLUMN_DATE + " DESC"), kinds, database);
+        } catch (RuntimeException e) {
+            database.endTransaction();
+            throw e;
+        }
     }
 
     /**
-     * Removes list od transactions from database.
+     * Begins a transaction for a consistent read. Android has no public deferred transaction, the non-exclusive one at least lets other
+     * connections read under write-ahead logging.
+     */
+    private void beginReadTransaction() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            database.beginTransactionNonExclusive();
+        } else {
+            database.beginTransaction();
+        }
+    }
+
+    /**
+     * Calculates balance of all transactions, that are not marked as deleted, directly in the database.
      *
-     * @param transactions List of transactions
+     * @return Sum of the values in minor currency units
      */
-    public synchronized void deleteTransactions(List<Transaction> transactions) {
-        database.beginTransaction();
+    public long loadBalance() {
+        return DatabaseUtils.longForQuery(database, "SELECT IFNULL(SUM(" + MySQLiteHelper.COLUMN_VALUE + "), 0) FROM " + MySQLiteHelper.TABLE_TRANSACTIONS
+                + " WHERE " + MySQLiteHelper.COLUMN_DELETED + " = 0", null);
+    }
 
-        for (Transaction transaction : transactions) {
-            // Removes from database
-            database.delete(MySQLiteHelper.TABLE_TRANSACTIONS, MySQLiteHelper.COLUMN_GUID + " = \"" + transaction.getGuid() + "\"", null);
+    /**
+     * Counts transactions, that are not marked as deleted.
+     *
+     * @return Number of transactions
+     */
+    public long countNotDeletedTransactions() {
+        return DatabaseUtils.longForQuery(database, "SELECT COUNT(*) FROM " + MySQLiteHelper.TABLE_TRANSACTIONS
+                + " WHERE " + MySQLiteHelper.COLUMN_DELETED + " = 0", null);
+    }
+
+    /**
+     * Selects a page of transactions, that are not marked as deleted, ordered from the newest. Transactions with the same date are ordered by GUID.
+     * The page starts right after the given transaction, so pages are found by the index and do not get slower with their distance from the start.
+     *
+     * @param after Transaction before the page (only its date and GUID are used) or null for the first page
+     * @param limit Maximal number of transactions, 0 for no limit
+     * @return List of transactions
+     */
+    public List<Transaction> loadNotDeletedTransactionsPage(Transaction after, int limit) {
+        String selection = MySQLiteHelper.COLUMN_DELETED + " = 0";
+        Object[] selectionArgs = {};
+        if (after != null) {
+            // The first condition bounds the index range, the second one skips the transactions with the same date up to the cursor
+            selection += " AND " + MySQLiteHelper.COLUMN_DATE + " <= ? AND (" + MySQLiteHelper.COLUMN_DATE + " < ? OR " + MySQLiteHelper.COLUMN_GUID + " > ?)";
+            selectionArgs = new Object[]{after.getDate(), after.getDate(), guidArgument(after.getGuid())};
         }
+        String orderBy = MySQLiteHelper.COLUMN_DATE + " DESC, " + MySQLiteHelper.COLUMN_GUID + " ASC";
+        return toList(queryNotDeletedTransactions(selection, selectionArgs, orderBy, limit));
+    }
 
-        database.setTransactionSuccessful();
-        database.endTransaction();
+    /**
+     * Selects a page of transactions, that are not marked as deleted, which are right before the given transaction in the order from the newest,
+     * i.e. newer ones or ones with the same date and a smaller GUID. It pages the list backwards at the same cost as {@link #loadNotDeletedTransactionsPage(Transaction, int)}.
+     *
+     * @param before Transaction after the page (only its date and GUID are used)
+     * @param limit  Maximal number of transactions, 0 for no limit
+     * @return List of the nearest transactions ordered from the newest
+     */
+    public List<Transaction> loadNotDeletedTransactionsPageBefore(Transaction before, int limit) {
+        String selection = MySQLiteHelper.COLUMN_DELETED + " = 0 AND " + MySQLiteHelper.COLUMN_DATE + " >= ? AND ("
+                + MySQLiteHelper.COLUMN_DATE + " > ? OR " + MySQLiteHelper.COLUMN_GUID + " < ?)";
+        Object[] selectionArgs = {before.getDate(), before.getDate(), guidArgument(before.getGuid())};
+        // The index is scanned backwards from the cursor, so the nearest transactions come first
+        String orderBy = MySQLiteHelper.COLUMN_DATE + " ASC, " + MySQLiteHelper.COLUMN_GUID + " DESC";
+
+        List<Transaction> result = toList(queryNotDeletedTransactions(selection, selectionArgs, orderBy, limit));
+        Collections.reverse(result);
+        return result;
     }
 
     /**
-     * Selects all transactions from the database.
+     * Selects transactions in the date range, that are not marked as deleted, ordered from the newest. Transactions with the same date are ordered by GUID.
      *
+     * @param from Start of the range (inclusive)
+     * @param to   End of the range (exclusive)
      * @return List of transactions
      */
-    public synchronized List<Transaction> loadTransactions() {
+    public List<Transaction> loadNotDeletedTransactionsInRange(long from, long to) {
+        String selection = MySQLiteHelper.COLUMN_DELETED + " = 0 AND " + MySQLiteHelper.COLUMN_DATE + " >= ? AND " + MySQLiteHelper.COLUMN_DATE + " < ?";
+        String orderBy = MySQLiteHelper.COLUMN_DATE + " DESC, " + MySQLiteHelper.COLUMN_GUID + " ASC";
+        return toList(queryNotDeletedTransactions(selection, new Object[]{from, to}, orderBy, 0));
+    }
+
+    /**
+     * Runs query for a page of transactions.
+     *
+     * @param selection     WHERE clause
+     * @param selectionArgs Arguments of the WHERE clause, see {@link #queryTransactions(String, Object[], String, int)}
+     * @param orderBy       ORDER BY clause
+     * @param limit         Maximal number of transactions, 0 for no limit
+     * @return Iterator of the transactions
+     */
+    private TransactionCursor queryNotDeletedTransactions(String selection, Object[] selectionArgs, String orderBy, int limit) {
+        return new TransactionCursor(queryTransactions(selection, selectionArgs, orderBy, limit), kinds);
+    }
+
+    /**
+     * Queries {@link #TRANSACTION_COLUMNS} of transactions with bound arguments. The SQL depends only on the shape of the query, not on the
+     * arguments, so the prepared statement is reused from the statement cache.
+     *
+     * @param selection     WHERE clause
+     * @param selectionArgs Arguments of the WHERE clause, byte arrays are bound as blobs (see {@link #guidArgument(String)}), numbers as integers
+     * @param orderBy       ORDER BY clause or null
+     * @param limit         Maximal number of transactions, 0 for no limit
+     * @return Cursor of the query
+     */
+    private Cursor queryTransactions(String selection, Object[] selectionArgs, String orderBy, int limit) {
+        String sql = SQLiteQueryBuilder.buildQueryString(false, MySQLiteHelper.TABLE_TRANSACTIONS, TRANSACTION_COLUMNS, selection, null, null, orderBy,
+                limit > 0 ? String.valueOf(limit) : null);
+        return database.rawQueryWithFactory(new BoundCursorFactory(selectionArgs), sql, null, MySQLiteHelper.TABLE_TRANSACTIONS);
+    }
+
+    /**
+     * Selects transactions with the given GUIDs, that are not marked as deleted.
+     *
+     * @param guids GUIDs of the transactions
+     * @return List of found transactions
+     */
+    public List<Transaction> loadNotDeletedTransactions(Collection<String> guids) {
         List<Transaction> result = new ArrayList<Transaction>();
+        List<String> chunk = new ArrayList<String>(MAX_BOUND_ARGUMENTS);
+        for (String guid : guids) {
+            chunk.add(guid);
+            if (chunk.size() == MAX_BOUND_ARGUMENTS) {
+                loadNotDeletedTransactions(chunk, result);
+                chunk.clear();
+            }
+        }
+        if (!chunk.isEmpty()) {
+            loadNotDeletedTransactions(chunk, result);
+        }
+        return result;
+    }
+
+    /**
+     * Selects from the database all transactions, that are marked as pending for sync.
+     *
+     * @return List of transactions
+     */
+    public List<Transaction> loadPendingTransactions() {
+        return toList(queryPendingTransactions());
+    }
+
+    /**
+     * Iterates through transactions, that are marked as pending for sync, from the newest without loading them to memory at once.
+     *
+     * @return Iterator, it has to be closed if it is not read to the end
+     */
+    public TransactionCursor queryPendingTransactions() {
+        return new TransactionCursor(database.query(MySQLiteHelper.TABLE_TRANSACTIONS, TRANSACTION_COLUMNS, MySQLiteHelper.COLUMN_PENDING + " = 1 ", null, null, null,
+                MySQLiteHelper.COLUMN_DATE + " DESC"), kinds);
+    }
+
+    /**
+     * Saves kinds to the kind dictionary in the database.
+     *
+     * @param newKinds Kinds by their id
+     */
+    public synchronized void saveKinds(Map<Integer, String> newKinds) {
         database.beginTransaction();
 
-        // Get cursor which points to table rows
-        Cursor cursor = database.query(MySQLiteHelper.TABLE_TRANSACTIONS, null, null, null, null, null, MySQLiteHelper.COLUMN_DATE + " DESC");
-        cursor.moveToFirst();
+        for (Map.Entry<Integer, String> kind : newKinds.entrySet()) {
+            ContentValues values = new ContentValues();
+            values.put(MySQLiteHelper.COLUMN_ID, kind.getKey());
+            values.put(MySQLiteHelper.COLUMN_NAME, kind.getValue());
+            database.insertWithOnConflict(MySQLiteHelper.TABLE_KINDS, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+        }
 
-        // Iterate through the rows
+        database.setTransactionSuccessful();
+        database.endTransaction();
+    }
+
+    /**
+     * Loads the kind dictionary from the database. Has to be called before any transaction is loaded. It changes the dictionary,
+     * so it holds the writer's lock.
+     */
+    public synchronized void loadKinds() {
+        Cursor cursor = database.query(MySQLiteHelper.TABLE_KINDS, new String[]{MySQLiteHelper.COLUMN_ID, MySQLiteHelper.COLUMN_NAME}, null, null, null, null, null);
+        cursor.moveToFirst();
         while (!cursor.isAfterLast()) {
-            // Costruct the Transaction object and add it to the result
-            result.add(cursorToTransaction(cursor));
+            kinds.load(cursor.getInt(0), cursor.getString(1));
             cursor.moveToNext();
         }
-
         cursor.close();
+    }
+
+    /**
+     * Saves period totals to the database. Totals with no transactions are removed from the database.
+     *
+     * @param rollups Collection of period totals
+     */
+    public synchronized void saveRollups(Collection<PeriodTotals> rollups) {
+        database.beginTransaction();
+
+        for (PeriodTotals totals : rollups) {
+            if (totals.getCount() == 0) {
+                // Removes from database
+                deleteRollupStatement.bindLong(1, totals.getPeriod().ordinal());
+                deleteRollupStatement.bindLong(2, totals.getStart());
+                deleteRollupStatement.execute();
+            } else {
+                // Insert into the database
+                bindRollup(upsertRollupStatement, totals);
+                upsertRollupStatement.executeInsert();
+            }
+        }
 
         database.setTransactionSuccessful();
         database.endTransaction();
-        return result;
     }
 
     /**
-     * Selects from the database all transactions, that are not marked as deleted.
+     * Replaces all period totals in the database.
      *
-     * @return List of transactions
+     * @param rollups Collection of period totals
      */
-    public synchronized List<Transaction> loadNotDeletedTransactions() {
+    public synchronized void replaceRollups(Collection<PeriodTotals> rollups) {
         database.beginTransaction();
-        List<Transaction> result = new ArrayList<Transaction>();
+
+        database.delete(MySQLiteHelper.TABLE_ROLLUPS, null, null);
+        for (PeriodTotals totals : rollups) {
+            bindRollup(upsertRollupStatement, totals);
+            upsertRollupStatement.executeInsert();
+        }
+
+        database.setTransactionSuccessful();
+        database.endTransaction();
+    }
+
+    /**
+     * Selects all period totals from the database.
+     *
+     * @return List of period totals
+     */
+    public List<PeriodTotals> loadRollups() {
+        List<PeriodTotals> result = new ArrayList<PeriodTotals>();
 
         // Get cursor which points to table rows
-        Cursor cursor = database.query(MySQLiteHelper.TABLE_TRANSACTIONS, null, MySQLiteHelper.COLUMN_DELETED + " = 0 ", null, null, null, MySQLiteHelper.COLUMN_DATE + " DESC");
+        Cursor cursor = database.query(MySQLiteHelper.TABLE_ROLLUPS, null, null, null, null, null, null);
         cursor.moveToFirst();
 
         // Iterate through the rows
         while (!cursor.isAfterLast()) {
-            // Costruct the Transaction object and add it to the result
-            result.add(cursorToTransaction(cursor));
+            // Costruct the PeriodTotals object and add it to the result
+            result.add(cursorToRollup(cursor));
             cursor.moveToNext();
         }
 
         cursor.close();
-
-        database.setTransactionSuccessful();
-        database.endTransaction();
         return result;
     }
 
     /**
-     * Selects from the database all transactions, that are marked as pending for sync.
+     * Selects transactions with the given GUIDs, that are not marked as deleted, with one query. Full chunks have the same SQL.
      *
-     * @return List of transactions
+     * @param guids  GUIDs of the transactions, at most MAX_BOUND_ARGUMENTS of them
+     * @param result List to add the found transactions to
      */
-    public synchronized List<Transaction> loadPendingTransactions() {
-        database.beginTransaction();
-        List<Transaction> result = new ArrayList<Transaction>();
-
-        // Get cursor which points to table rows
-        Cursor cursor = database.query(MySQLiteHelper.TABLE_TRANSACTIONS, null, MySQLiteHelper.COLUMN_PENDING + " = 1 ", null, null, null, MySQLiteHelper.COLUMN_DATE + " DESC");
+    private void loadNotDeletedTransactions(List<String> guids, List<Transaction> result) {
+        String selection = MySQLiteHelper.COLUMN_DELETED + " = 0 AND " + MySQLiteHelper.COLUMN_GUID + " IN " + placeholders(guids.size());
+        Object[] selectionArgs = new Object[guids.size()];
+        for (int i = 0; i < selectionArgs.length; i++) {
+            selectionArgs[i] = guidArgument(guids.get(i));
+        }
+        Cursor cursor = queryTransactions(selection, selectionArgs, null, 0);
         cursor.moveToFirst();
-
-        // Iterate through the rows
         while (!cursor.isAfterLast()) {
-            // Costruct the Transaction object and add it to the result
             result.add(cursorToTransaction(cursor));
             cursor.moveToNext();
         }
-
         cursor.close();
+    }
 
-        database.setTransactionSuccessful();
-        database.endTransaction();
-        return result;
+    /**
+     * Executes the statement for the set of GUIDs in chunks of bound IN-lists in one database transaction. Full chunks have the same SQL,
+     * so the prepared statement is reused from the statement cache.
+     *
+     * @param sqlPrefix Statement ending with "IN ", the list of placeholders is appended
+     * @param guids     GUIDs of the transactions
+     */
+    private void executeForGuids(String sqlPrefix, Collection<String> guids) {
+        if (guids.isEmpty()) {
+            return;
+        }
+        String fullChunkSql = sqlPrefix + placeholders(MAX_BOUND_ARGUMENTS);
+        List<Object> chunk = new ArrayList<Object>(Math.min(guids.size(), MAX_BOUND_ARGUMENTS));
+
+        database.beginTransaction();
+        try {
+            for (String guid : guids) {
+                chunk.add(guidArgument(guid));
+                if (chunk.size() == MAX_BOUND_ARGUMENTS) {
+                    database.execSQL(fullChunkSql, chunk.toArray());
+                    chunk.clear();
+                }
+            }
+            if (!chunk.isEmpty()) {
+                database.execSQL(sqlPrefix + placeholders(chunk.size()), chunk.toArray());
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    /**
+     * Creates list of placeholders for bound arguments.
+     *
+     * @param count Number of placeholders
+     * @return Placeholders in parentheses, e.g. "(?, ?, ?)"
+     */
+    private static String placeholders(int count) {
+        StringBuilder builder = new StringBuilder(count * 3 + 1);
+        builder.append('(');
+        for (int i = 0; i < count; i++) {
+            builder.append(i == 0 ? "?" : ", ?");
+        }
+        return builder.append(')').toString();
+    }
+
+    /**
+     * Binds the GUID in the form it is stored in, see {@link MySQLiteHelper}.
+     *
+     * @param statement Compiled statement
+     * @param index     Index of the argument (starting from 1)
+     * @param guid      GUID
+     */
+    static void bindGuid(SQLiteStatement statement, int index, String guid) {
+        if (PackedGuid.isPackable(guid)) {
+            statement.bindBlob(index, PackedGuid.toBytes(guid));
+        } else {
+            statement.bindString(index, guid);
+        }
     }
 
     /**
-     * Creates ContentValues object from the transaction. The ContentValues object is saved into the database.
+     * Converts the GUID to the argument of a query in the form it is stored in, see {@link MySQLiteHelper}.
      *
+     * @param guid GUID
+     * @return Packed GUID as a byte array bound as a blob, or the text GUID
+     */
+    private static Object guidArgument(String guid) {
+        return PackedGuid.isPackable(guid) ? PackedGuid.toBytes(guid) : guid;
+    }
+
+    /**
+     * Binds columns of the transaction to the insert or update statement.
+     *
+     * @param statement   Compiled insert or update statement
      * @param transaction Transaction
-     * @return ContentValues object
      */
-    private ContentValues transactionToContentValues(Transaction transaction) {
-        ContentValues values = new ContentValues();
-        values.put(MySQLiteHelper.COLUMN_GUID, transaction.getGuid());
-        values.put(MySQLiteHelper.COLUMN_VALUE, transaction.getValue());
-        values.put(MySQLiteHelper.COLUMN_DATE, transaction.getDate());
-        values.put(MySQLiteHelper.COLUMN_KIND, transaction.getKind());
-        values.put(MySQLiteHelper.COLUMN_DELETED, transaction.isDeleted() ? 1 : 0);
-        values.put(MySQLiteHelper.COLUMN_PENDING, transaction.isPending() ? 1 : 0);
-        return values;
+    private static void bindTransaction(SQLiteStatement statement, Transaction transaction) {
+        bindGuid(statement, 1, transaction.getGuid());
+        statement.bindLong(2, transaction.getValue());
+        statement.bindLong(3, transaction.getDate());
+        statement.bindLong(4, transaction.getKindId());
+        statement.bindLong(5, transaction.isDeleted() ? 1 : 0);
+        statement.bindLong(6, transaction.isPending() ? 1 : 0);
+    }
+
+    /**
+     * Binds columns of the period totals to the upsert statement.
+     *
+     * @param statement Compiled upsert statement
+     * @param totals    Period totals
+     */
+    private static void bindRollup(SQLiteStatement statement, PeriodTotals totals) {
+        statement.bindLong(1, totals.getPeriod().ordinal());
+        statement.bindLong(2, totals.getStart());
+        statement.bindLong(3, totals.getIncome());
+        statement.bindLong(4, totals.getExpense());
+        statement.bindLong(5, totals.getCount());
+    }
+
+    /**
+     * Creates a PeriodTotals object from cursor pointer, which points to a table row.
+     *
+     * @param cursor Pointer
+     * @return PeriodTotals
+     */
+    private PeriodTotals cursorToRollup(Cursor cursor) {
+        PeriodTotals totals = new PeriodTotals(PeriodTotals.Period.values()[cursor.getInt(0)], cursor.getLong(1));
+        totals.setIncome(cursor.getLong(2));
+        totals.setExpense(cursor.getLong(3));
+        totals.setCount(cursor.getInt(4));
+        return totals;
     }
 
     /**
@@ -232,13 +683,24 @@ public class BudgetDataSource {
      * @return Transaction
      */
     private Transaction cursorToTransaction(Cursor cursor) {
-        Transaction transaction = new Transaction();
-        transaction.setGuid(cursor.getString(0));
-        transaction.setValue(cursor.getDouble(1));
-        transaction.setDate(cursor.getLong(2));
-        transaction.setKind(cursor.getString(3));
-        transaction.setDeleted(cursor.getInt(4) == 1);
-        transaction.setPending(cursor.getInt(5) == 1);
-        return transaction;
+        return TransactionCursor.read(cursor, kinds);
+    }
+
+    /**
+     * Reads all transactions of the iterator to a list.
+     *
+     * @param transactions Iterator of a query
+     * @return List of transactions
+     */
+    private static List<Transaction> toList(TransactionCursor transactions) {
+        try {
+            List<Transaction> result = new ArrayList<Transaction>(transactions.getCount());
+            while (transactions.hasNext()) {
+                result.add(transactions.next());
+            }
+            return result;
+        } finally {
+            transactions.close();
+        }
     }
 }
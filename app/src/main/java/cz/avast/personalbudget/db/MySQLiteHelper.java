@@ -1,8 +1,12 @@
 package cz.avast.personalbudget.db;
 
 import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.os.Build;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 import android.util.Log;
 
 /**
@@ -23,18 +27,93 @@ public class MySQLiteHelper extends SQLiteOpenHelper {
     public static final String COLUMN_VALUE = "value";
     public static final String COLUMN_DATE = "date";
     public static final String COLUMN_KIND = "kind";
+    public static final String COLUMN_KIND_ID = "kind_id";
     public static final String COLUMN_DELETED = "deleted";
     public static final String COLUMN_PENDING = "pending";
     /**
-     * SQL code for creating the table for Transactions
+     * Name of the database table for period totals
+     */
+    public static final String TABLE_ROLLUPS = "rollups";
+
+    /**
+     * Column names of the database table for period totals.
+     */
+    public static final String COLUMN_PERIOD = "period";
+    public static final String COLUMN_START = "start";
+    public static final String COLUMN_INCOME = "income";
+    public static final String COLUMN_EXPENSE = "expense";
+    public static final String COLUMN_COUNT = "count";
+    /**
+     * Name of the database table for the kind dictionary
+     */
+    public static final String TABLE_KINDS = "kinds";
+
+    /**
+     * Column names of the database table for the kind dictionary.
+     */
+    public static final String COLUMN_ID = "id";
+    public static final String COLUMN_NAME = "name";
+    /**
+     * SQL code for creating the table for Transactions. Rows are clustered by the integer rowid, GUIDs in the canonical form are stored as 16 byte blobs
+     * and other GUIDs as text, both in the unique index. Blobs are ordered the same way as the text of the GUIDs, text GUIDs are ordered before all blobs.
      */
     private static final String DATABASE_CREATE = "create table " + TABLE_TRANSACTIONS + "("
-            + COLUMN_GUID + " text primary key not null, "
-            + COLUMN_VALUE + " real not null, "
+            + COLUMN_ID + " integer primary key, "
+            + COLUMN_GUID + " not null, "
+            + COLUMN_VALUE + " integer not null, "
             + COLUMN_DATE + " integer not null, "
-            + COLUMN_KIND + " text not null, "
+            + COLUMN_KIND_ID + " integer not null, "
             + COLUMN_DELETED + " integer not null, "
             + COLUMN_PENDING + " integer not null);";
+    /**
+     * SQL code for creating the table for the kind dictionary
+     */
+    private static final String DATABASE_CREATE_KINDS = "create table " + TABLE_KINDS + "("
+            + COLUMN_ID + " integer primary key, "
+            + COLUMN_NAME + " text unique not null);";
+    /**
+     * SQL code for creating the table for period totals
+     */
+    private static final String DATABASE_CREATE_ROLLUPS = "create table " + TABLE_ROLLUPS + "("
+            + COLUMN_PERIOD + " integer not null, "
+            + COLUMN_START + " integer not null, "
+            + COLUMN_INCOME + " integer not null, "
+            + COLUMN_EXPENSE + " integer not null, "
+            + COLUMN_COUNT + " integer not null, "
+            + "primary key (" + COLUMN_PERIOD + ", " + COLUMN_START + "));";
+    /**
+     * Name of the index of not deleted transactions sorted by date
+     */
+    private static final String INDEX_DELETED_DATE = "index_" + TABLE_TRANSACTIONS + "_" + COLUMN_DELETED + "_" + COLUMN_DATE;
+    /**
+     * Name of the index of transactions pending for sync
+     */
+    private static final String INDEX_PENDING = "index_" + TABLE_TRANSACTIONS + "_" + COLUMN_PENDING;
+    /**
+     * SQL code for creating the unique index of GUIDs, it replaces the text primary key
+     */
+    private static final String DATABASE_CREATE_INDEX_GUID = "create unique index index_" + TABLE_TRANSACTIONS + "_" + COLUMN_GUID + " on " + TABLE_TRANSACTIONS + "("
+            + COLUMN_GUID + ");";
+    /**
+     * Name of the index of not deleted transactions in the order of the budget list
+     */
+    private static final String INDEX_DELETED_DATE_GUID = "index_" + TABLE_TRANSACTIONS + "_" + COLUMN_DELETED + "_" + COLUMN_DATE + "_" + COLUMN_GUID;
+    /**
+     * SQL code for creating the index which turns loading of not deleted transactions sorted by date into a range scan. It has the order of the budget list,
+     * so a page after or before any transaction is a range scan in either direction with no sorting.
+     */
+    private static final String DATABASE_CREATE_INDEX_DELETED_DATE_GUID = "create index " + INDEX_DELETED_DATE_GUID + " on " + TABLE_TRANSACTIONS + "("
+            + COLUMN_DELETED + ", " + COLUMN_DATE + " desc, " + COLUMN_GUID + " asc);";
+    /**
+     * SQL code for creating the partial index of pending transactions, it contains only the few rows waiting for sync
+     */
+    private static final String DATABASE_CREATE_INDEX_PENDING = "create index " + INDEX_PENDING + " on " + TABLE_TRANSACTIONS + "("
+            + COLUMN_DATE + ") where " + COLUMN_PENDING + " = 1;";
+    /**
+     * SQL code for creating the index of pending transactions where SQLite does not support partial indexes
+     */
+    private static final String DATABASE_CREATE_INDEX_PENDING_FULL = "create index " + INDEX_PENDING + " on " + TABLE_TRANSACTIONS + "("
+            + COLUMN_PENDING + ", " + COLUMN_DATE + ");";
     /**
      * Database name
      */
@@ -42,7 +121,7 @@ public class MySQLiteHelper extends SQLiteOpenHelper {
     /**
      * Database version number. This is used when structure of the database changes and it is necessary to adjust the data.
      */
-    private static final int DATABASE_VERSION = 1;
+    private static final int DATABASE_VERSION = 7;
 
 
     public MySQLiteHelper(Context context) {
@@ -53,10 +132,28 @@ public class MySQLiteHelper extends SQLiteOpenHelper {
     public void onCreate(SQLiteDatabase database) {
         // Creates tables in the database
         database.execSQL(DATABASE_CREATE);
+        database.execSQL(DATABASE_CREATE_ROLLUPS);
+        database.execSQL(DATABASE_CREATE_KINDS);
+        createTransactionIndexes(database);
+    }
+
+    /**
+     * Switches the database to write-ahead logging where it is available, so a commit appends to the log instead of rewriting the journal
+     * and readers do not wait for the writer.
+     *
+     * @param db Opened database
+     */
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        if (!db.isReadOnly() && Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            db.enableWriteAheadLogging();
+        }
     }
 
     /**
      * When structure of the database changes, this method is called to do all necessary adjustments to the data and the database. OldVersion number indicates how old is the database before changes so we know how much needs to be changed to meet the new version requirements.
+     * Every version has its own step which keeps the data, steps run one after another in a single database transaction.
      *
      * @param db         Database in which adjustments are to be made.
      * @param oldVersion Old version of the database.
@@ -64,10 +161,171 @@ public class MySQLiteHelper extends SQLiteOpenHelper {
      */
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        Log.w(MySQLiteHelper.class.getName(), "Upgrading database from version " + oldVersion + " to " + newVersion + ", which will destroy all old data");
+        Log.w(MySQLiteHelper.class.getName(), "Upgrading database from version " + oldVersion + " to " + newVersion);
 
-        // For now, only drop the old table and create a new one.
-        db.execSQL("DROP TABLE IF EXISTS " + TABLE_TRANSACTIONS);
-        onCreate(db);
+        if (oldVersion < 2) {
+            upgradeToVersion2(db);
+        }
+        if (oldVersion < 3) {
+            upgradeToVersion3(db);
+        }
+        if (oldVersion < 4) {
+            upgradeToVersion4(db);
+        }
+        if (oldVersion < 5) {
+            upgradeToVersion5(db);
+        }
+        if (oldVersion < 6) {
+            upgradeToVersion6(db);
+        }
+        if (oldVersion < 7) {
+            upgradeToVersion7(db);
+        }
+    }
+
+    /**
+     * Version 2 stores transaction values in minor currency units (hundredths) in an integer column instead of a real one. SQLite cannot change column type, so the table is copied.
+     *
+     * @param db Database in which adjustments are to be made.
+     */
+    private void upgradeToVersion2(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE " + TABLE_TRANSACTIONS + " RENAME TO " + TABLE_TRANSACTIONS + "_old");
+        db.execSQL("create table " + TABLE_TRANSACTIONS + "("
+                + COLUMN_GUID + " text primary key not null, "
+                + COLUMN_VALUE + " integer not null, "
+                + COLUMN_DATE + " integer not null, "
+                + COLUMN_KIND + " text not null, "
+                + COLUMN_DELETED + " integer not null, "
+                + COLUMN_PENDING + " integer not null);");
+        db.execSQL("INSERT INTO " + TABLE_TRANSACTIONS + " SELECT "
+                + COLUMN_GUID + ", "
+                + "CAST(ROUND(" + COLUMN_VALUE + " * 100) AS INTEGER), "
+                + COLUMN_DATE + ", "
+                + COLUMN_KIND + ", "
+                + COLUMN_DELETED + ", "
+                + COLUMN_PENDING + " FROM " + TABLE_TRANSACTIONS + "_old");
+        db.execSQL("DROP TABLE " + TABLE_TRANSACTIONS + "_old");
+    }
+
+    /**
+     * Version 3 adds the table for period totals. The table is filled by the data model when it finds out the totals do not match the transactions.
+     *
+     * @param db Database in which adjustments are to be made.
+     */
+    private void upgradeToVersion3(SQLiteDatabase db) {
+        db.execSQL(DATABASE_CREATE_ROLLUPS);
+    }
+
+    /**
+     * Version 4 stores every distinct kind once in the kind dictionary, transactions refer to it by id. The table is copied to replace the kind column.
+     *
+     * @param db Database in which adjustments are to be made.
+     */
+    private void upgradeToVersion4(SQLiteDatabase db) {
+        db.execSQL(DATABASE_CREATE_KINDS);
+        db.execSQL("INSERT INTO " + TABLE_KINDS + " (" + COLUMN_NAME + ") SELECT DISTINCT " + COLUMN_KIND + " FROM " + TABLE_TRANSACTIONS);
+
+        db.execSQL("ALTER TABLE " + TABLE_TRANSACTIONS + " RENAME TO " + TABLE_TRANSACTIONS + "_old");
+        db.execSQL("create table " + TABLE_TRANSACTIONS + "("
+                + COLUMN_GUID + " text primary key not null, "
+                + COLUMN_VALUE + " integer not null, "
+                + COLUMN_DATE + " integer not null, "
+                + COLUMN_KIND_ID + " integer not null, "
+                + COLUMN_DELETED + " integer not null, "
+                + COLUMN_PENDING + " integer not null);");
+        db.execSQL("INSERT INTO " + TABLE_TRANSACTIONS + " SELECT "
+                + "t." + COLUMN_GUID + ", "
+                + "t." + COLUMN_VALUE + ", "
+                + "t." + COLUMN_DATE + ", "
+                + "k." + COLUMN_ID + ", "
+                + "t." + COLUMN_DELETED + ", "
+                + "t." + COLUMN_PENDING + " FROM " + TABLE_TRANSACTIONS + "_old t JOIN " + TABLE_KINDS + " k ON k." + COLUMN_NAME + " = t." + COLUMN_KIND);
+        db.execSQL("DROP TABLE " + TABLE_TRANSACTIONS + "_old");
+    }
+
+    /**
+     * Version 5 adds indexes for loading of not deleted and pending transactions, so the queries do not scan and sort the whole table.
+     *
+     * @param db Database in which adjustments are to be made.
+     */
+    private void upgradeToVersion5(SQLiteDatabase db) {
+        db.execSQL("create index " + INDEX_DELETED_DATE + " on " + TABLE_TRANSACTIONS + "(" + COLUMN_DELETED + ", " + COLUMN_DATE + ");");
+        db.execSQL(supportsPartialIndexes(db) ? DATABASE_CREATE_INDEX_PENDING : DATABASE_CREATE_INDEX_PENDING_FULL);
+        // Lets the query planner know the indexes are selective
+        db.execSQL("ANALYZE " + TABLE_TRANSACTIONS);
+    }
+
+    /**
+     * Version 6 extends the index of not deleted transactions by GUID for paging by (date, GUID) cursor. The extended index replaces the old one.
+     *
+     * @param db Database in which adjustments are to be made.
+     */
+    private void upgradeToVersion6(SQLiteDatabase db) {
+        db.execSQL("DROP INDEX IF EXISTS " + INDEX_DELETED_DATE);
+        db.execSQL(DATABASE_CREATE_INDEX_DELETED_DATE_GUID);
+        db.execSQL("ANALYZE " + TABLE_TRANSACTIONS);
+    }
+
+    /**
+     * Version 7 clusters transactions by the integer rowid and stores GUIDs in the canonical form as 16 byte blobs in a unique index instead of the text primary key.
+     * GUIDs have to be converted in Java, so the rows are copied one by one by a compiled statement.
+     *
+     * @param db Database in which adjustments are to be made.
+     */
+    private void upgradeToVersion7(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE " + TABLE_TRANSACTIONS + " RENAME TO " + TABLE_TRANSACTIONS + "_old");
+        db.execSQL(DATABASE_CREATE);
+
+        SQLiteStatement insert = db.compileStatement("INSERT INTO " + TABLE_TRANSACTIONS + " (" + COLUMN_GUID + ", " + COLUMN_VALUE + ", " + COLUMN_DATE + ", "
+                + COLUMN_KIND_ID + ", " + COLUMN_DELETED + ", " + COLUMN_PENDING + ") VALUES (?, ?, ?, ?, ?, ?)");
+        // Rows are inserted in the order of the budget list, so the newest transactions get the lowest rowids and are close to each other
+        Cursor cursor = db.query(TABLE_TRANSACTIONS + "_old", new String[]{COLUMN_GUID, COLUMN_VALUE, COLUMN_DATE, COLUMN_KIND_ID, COLUMN_DELETED, COLUMN_PENDING},
+                null, null, null, null, COLUMN_DATE + " DESC, " + COLUMN_GUID + " ASC");
+        try {
+            while (cursor.moveToNext()) {
+                BudgetDataSource.bindGuid(insert, 1, cursor.getString(0));
+                for (int column = 1; column < 6; column++) {
+                    insert.bindLong(column + 1, cursor.getLong(column));
+                }
+                insert.executeInsert();
+            }
+        } finally {
+            cursor.close();
+            insert.close();
+        }
+
+        // Indexes of the old table are dropped with it
+        db.execSQL("DROP TABLE " + TABLE_TRANSACTIONS + "_old");
+        createTransactionIndexes(db);
+        db.execSQL("ANALYZE " + TABLE_TRANSACTIONS);
+    }
+
+    /**
+     * Creates secondary indexes of the table for Transactions. Index of pending transactions is partial where SQLite supports it (3.8.0, Android 5.0).
+     *
+     * @param db Database in which the indexes are created.
+     */
+    private static void createTransactionIndexes(SQLiteDatabase db) {
+        db.execSQL(DATABASE_CREATE_INDEX_GUID);
+        db.execSQL(DATABASE_CREATE_INDEX_DELETED_DATE_GUID);
+        db.execSQL(supportsPartialIndexes(db) ? DATABASE_CREATE_INDEX_PENDING : DATABASE_CREATE_INDEX_PENDING_FULL);
+    }
+
+    /**
+     * Checks whether the SQLite library is at least 3.8.0 which added partial indexes.
+     *
+     * @param db Opened database
+     * @return True if partial indexes can be created
+     */
+    private static boolean supportsPartialIndexes(SQLiteDatabase db) {
+        String[] version = DatabaseUtils.stringForQuery(db, "SELECT sqlite_version()", null).split("\\.");
+        try {
+            int major = Integer.parseInt(version[0]);
+            int minor = version.length > 1 ? Integer.parseInt(version[1]) : 0;
+            return major > 3 || (major == 3 && minor >= 8);
+        } catch (NumberFormatException e) {
+            Log.w(MySQLiteHelper.class.getName(), "Unknown SQLite version", e);
+            return false;
+        }
     }
 }
@@ -0,0 +1,133 @@
+package cz.avast.personalbudget.db;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import cz.avast.personalbudget.entity.Transaction;
+import cz.avast.personalbudget.model.KindDictionary;
+import cz.avast.personalbudget.model.PackedGuid;
+
+/**
+ * Iterates through transactions of a query row by row. Only the current cursor window (up to about 2 MB of rows) is held in memory, so the memory
+ * does not grow with the number of rows.
+ * <p/>
+ * A cursor created with a database reads in a database transaction, so every window refill sees the same state of the database. The transaction
+ * holds the write lock, so the writer waits until the cursor is closed. Such cursor has to be read and closed on the thread which created it.
+ * A cursor without a transaction sees the last committed state at every window refill, rows written meanwhile may be skipped or read twice,
+ * so it is suitable only for queries whose result fits into one window.
+ * <p/>
+ * The cursor is closed when the last row is read. Callers which stop earlier have to call {@link #close()}.
+ */
+public class TransactionCursor implements Iterator<Transaction>, Closeable {
+
+    /**
+     * Cursor of the query
+     */
+    private final Cursor cursor;
+
+    /**
+     * Dictionary for translating kind ids to names
+     */
+    private final KindDictionary kinds;
+
+    /**
+     * Database whose transaction is ended when the cursor is closed, null if the query does not run in a transaction
+     */
+    private SQLiteDatabase transactionDatabase;
+
+    /**
+     * Creates iterator positioned before the first row.
+     *
+     * @param cursor Cursor of the query with {@link BudgetDataSource#TRANSACTION_COLUMNS}
+     * @param kinds  Dictionary for translating kind ids to names
+     */
+    TransactionCursor(Cursor cursor, KindDictionary kinds) {
+        this(cursor, kinds, null);
+    }
+
+    /**
+     * Creates iterator positioned before the first row.
+     *
+     * @param cursor              Cursor of the query with {@link BudgetDataSource#TRANSACTION_COLUMNS}
+     * @param kinds               Dictionary for translating kind ids to names
+     * @param transactionDatabase Database with the transaction the query runs in, it is ended when the cursor is closed. Null if there is no transaction.
+     */
+    TransactionCursor(Cursor cursor, KindDictionary kinds, SQLiteDatabase transactionDatabase) {
+        this.cursor = cursor;
+        this.kinds = kinds;
+        this.transactionDatabase = transactionDatabase;
+        if (!cursor.moveToFirst()) {
+            close();
+        }
+    }
+
+    /**
+     * Returns number of rows of the query. It makes SQLite run the whole query, so call it only when the count is needed.
+     *
+     * @return Number of rows
+     */
+    public int getCount() {
+        return cursor.isClosed() ? 0 : cursor.getCount();
+    }
+
+    @Override
+    public boolean hasNext() {
+        return !cursor.isClosed() && !cursor.isAfterLast();
+    }
+
+    @Override
+    public Transaction next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Transaction transaction = read(cursor, kinds);
+        if (!cursor.moveToNext()) {
+            close();
+        }
+        return transaction;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Closes the cursor and ends its transaction. It can be called more than once.
+     */
+    @Override
+    public void close() {
+        if (!cursor.isClosed()) {
+            cursor.close();
+        }
+        if (transactionDatabase != null) {
+            // Nothing was written, the successful end only keeps an enclosing transaction of the thread from being rolled back
+            transactionDatabase.setTransactionSuccessful();
+            transactionDatabase.endTransaction();
+            transactionDatabase = null;
+        }
+    }
+
+    /**
+     * Converts the current row of the cursor to the Transaction object.
+     *
+     * @param cursor Cursor of the query with {@link BudgetDataSource#TRANSACTION_COLUMNS}
+     * @param kinds  Dictionary for translating kind ids to names
+     * @return New transaction
+     */
+    static Transaction read(Cursor cursor, KindDictionary kinds) {
+        Transaction transaction = new Transaction();
+        transaction.setGuid(cursor.getInt(6) == 1 ? PackedGuid.fromBytes(cursor.getBlob(0)) : cursor.getString(0));
+        transaction.setValue(cursor.getLong(1));
+        transaction.setDate(cursor.getLong(2));
+        int kindId = cursor.getInt(3);
+        transaction.setKind(kinds.getName(kindId), kindId);
+        transaction.setDeleted(cursor.getInt(4) == 1);
+        transaction.setPending(cursor.getInt(5) == 1);
+        return transaction;
+    }
+}
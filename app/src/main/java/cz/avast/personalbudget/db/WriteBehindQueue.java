@@ -0,0 +1,469 @@
+package cz.avast.personalbudget.db;
+
+import android.database.SQLException;
+import android.os.Process;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import cz.avast.personalbudget.entity.PeriodTotals;
+import cz.avast.personalbudget.entity.Transaction;
+
+/**
+ * Queue of database writes executed on a dedicated database thread. Writes to the same transaction GUID (or the same period totals) are coalesced,
+ * only the last one is written. All writes collected since the previous flush are written in one database transaction.
+ */
+public class WriteBehindQueue {
+
+    /**
+     * String constant indicating class type
+     */
+    public static final String TAG = WriteBehindQueue.class.getSimpleName();
+
+    /**
+     * Delay of the first retry after failed write in milliseconds
+     */
+    private static final long MIN_RETRY_DELAY = 1000;
+
+    /**
+     * Maximum delay between retries of failed writes in milliseconds
+     */
+    private static final long MAX_RETRY_DELAY = 60000;
+
+    /**
+     * Data source used for writing
+     */
+    private final BudgetDataSource dataSource;
+
+    /**
+     * Single database thread
+     */
+    private final ScheduledExecutorService executor;
+
+    /**
+     * Transactions waiting for writing by their GUID. Value says whether the transaction is saved, deleted or only its pending flag is cleared.
+     */
+    private Map<String, PendingWrite> pendingWrites = new LinkedHashMap<String, PendingWrite>();
+
+    /**
+     * Transaction writes taken by the running flush, they stay here until they are committed
+     */
+    private Map<String, PendingWrite> writingWrites = Collections.emptyMap();
+
+    /**
+     * Period totals waiting for writing by their period and start
+     */
+    private Map<String, PeriodTotals> pendingRollups = new LinkedHashMap<String, PeriodTotals>();
+
+    /**
+     * New kinds waiting for writing by their id
+     */
+    private Map<Integer, String> pendingKinds = new LinkedHashMap<Integer, String>();
+
+    /**
+     * Actions that are run on the database thread after the pending writes are committed
+     */
+    private List<Runnable> pendingActions = new ArrayList<Runnable>();
+
+    /**
+     * Whether a flush is already waiting on the database thread
+     */
+    private boolean flushScheduled;
+
+    /**
+     * Delay of the next retry after failed write in milliseconds, it doubles with every failure in a row
+     */
+    private long retryDelay = MIN_RETRY_DELAY;
+
+    /**
+     * Task writing everything that is pending
+     */
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            writePending();
+        }
+    };
+
+    /**
+     * WriteBehindQueue constructor
+     *
+     * @param dataSource Data source used for writing
+     */
+    public WriteBehindQueue(BudgetDataSource dataSource) {
+        this.dataSource = dataSource;
+        this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, "budget-db");
+            }
+        });
+    }
+
+    /**
+     * Queues saving of the transaction. Transaction must not be modified after it is queued.
+     *
+     * @param transaction Transaction
+     */
+    public synchronized void saveTransaction(Transaction transaction) {
+        putWrite(pendingWrites, new PendingWrite(transaction, PendingWrite.Type.SAVE));
+        scheduleFlush();
+    }
+
+    /**
+     * Queues saving of the transactions. Transactions must not be modified after they are queued.
+     *
+     * @param transactions Transactions
+     */
+    public synchronized void saveTransactions(Collection<Transaction> transactions) {
+        for (Transaction transaction : transactions) {
+            putWrite(pendingWrites, new PendingWrite(transaction, PendingWrite.Type.SAVE));
+        }
+        scheduleFlush();
+    }
+
+    /**
+     * Queues writing of the transactions in their order. Transactions marked as deleted are removed from the database, the others are saved.
+     * Transactions must not be modified after they are queued.
+     *
+     * @param transactions Transactions
+     */
+    public synchronized void writeTransactions(List<Transaction> transactions) {
+        for (Transaction transaction : transactions) {
+            putWrite(pendingWrites, new PendingWrite(transaction, transaction.isDeleted() ? PendingWrite.Type.DELETE : PendingWrite.Type.SAVE));
+        }
+        scheduleFlush();
+    }
+
+    /**
+     * Queues removing of the transactions from the database.
+     *
+     * @param transactions Transactions
+     */
+    public synchronized void deleteTransactions(Collection<Transaction> transactions) {
+        for (Transaction transaction : transactions) {
+            putWrite(pendingWrites, new PendingWrite(transaction, PendingWrite.Type.DELETE));
+        }
+        scheduleFlush();
+    }
+
+    /**
+     * Queues clearing of the pending flag of the stored transactions after they were synced. All of them are written with a few set-based statements.
+     *
+     * @param transactions Synced transactions
+     */
+    public synchronized void clearPending(Collection<Transaction> transactions) {
+        for (Transaction transaction : transactions) {
+            putWrite(pendingWrites, new PendingWrite(transaction, PendingWrite.Type.CLEAR_PENDING));
+        }
+        scheduleFlush();
+    }
+
+    /**
+     * Queues saving of the period totals. The totals are copied, so they can be changed later.
+     *
+     * @param rollups Changed period totals
+     */
+    public synchronized void saveRollups(Collection<PeriodTotals> rollups) {
+        if (rollups.isEmpty()) {
+            return;
+        }
+        for (PeriodTotals totals : rollups) {
+            pendingRollups.put(totals.getPeriod().ordinal() + ":" + totals.getStart(), new PeriodTotals(totals));
+        }
+        scheduleFlush();
+    }
+
+    /**
+     * Queues saving of new kinds. They are written before the transactions in the same database transaction.
+     *
+     * @param kinds New kinds by their id
+     */
+    public synchronized void saveKinds(Map<Integer, String> kinds) {
+        if (kinds.isEmpty()) {
+            return;
+        }
+        pendingKinds.putAll(kinds);
+        scheduleFlush();
+    }
+
+    /**
+     * Queues all changes of a batch at once, so they are written together in one database transaction. Transactions must not be modified after they are queued.
+     *
+     * @param kinds   New kinds by their id
+     * @param save    Transactions to save
+     * @param delete  Transactions to remove from the database
+     * @param rollups Changed period totals, they are copied
+     */
+    public synchronized void writeBatch(Map<Integer, String> kinds, Collection<Transaction> save, Collection<Transaction> delete, Collection<PeriodTotals> rollups) {
+        saveKinds(kinds);
+        saveTransactions(save);
+        deleteTransactions(delete);
+        saveRollups(rollups);
+    }
+
+    /**
+     * Queues action which runs on the database thread after all writes queued before it are committed.
+     *
+     * @param action Action
+     */
+    public synchronized void runAfterWrites(Runnable action) {
+        pendingActions.add(action);
+        scheduleFlush();
+    }
+
+    /**
+     * Returns the last queued version of every transaction whose write is not committed yet, including the writes of the running flush.
+     * Readers apply it to transactions read from the database instead of waiting for the writes. Transactions removed from the database are returned
+     * marked as deleted. Nothing is written between the returned state and a following read, except the returned writes.
+     *
+     * @return Transactions by their GUID
+     */
+    public synchronized Map<String, Transaction> getUncommittedTransactions() {
+        Map<String, Transaction> result = new HashMap<String, Transaction>();
+        putUncommitted(result, writingWrites);
+        putUncommitted(result, pendingWrites);
+        return result;
+    }
+
+    /**
+     * Writes everything that is queued and waits until it is done, but at most the given time. The writes continue in the background after
+     * the timeout, so it is safe to call on the UI thread with a timeout short enough to avoid ANR. Must not be called on the database thread.
+     *
+     * @param timeout Maximal time to wait in milliseconds
+     * @return True if everything queued before the call is written (or failed and is queued again), false if the time ran out
+     */
+    public boolean flush(long timeout) {
+        try {
+            executor.submit(flushTask).get(timeout, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (TimeoutException e) {
+            Log.d(TAG, "Flush still running after " + timeout + " ms, it continues in the background");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            Log.e(TAG, "Flush failed", e);
+        }
+        return false;
+    }
+
+    /**
+     * Writes everything that is queued and stops the database thread. It waits until the writes are done. Nothing can be queued afterwards.
+     */
+    public void close() {
+        flush(Long.MAX_VALUE);
+        executor.shutdown();
+    }
+
+    /**
+     * Schedules flush on the database thread unless it is already scheduled.
+     */
+    private void scheduleFlush() {
+        if (!flushScheduled) {
+            flushScheduled = true;
+            executor.execute(flushTask);
+        }
+    }
+
+    /**
+     * Takes all pending writes and writes them in one database transaction. Runs on the database thread.
+     */
+    private void writePending() {
+        Map<Integer, String> kinds;
+        Map<String, PendingWrite> writes;
+        Map<String, PeriodTotals> rollups;
+        List<Runnable> actions;
+        synchronized (this) {
+            kinds = pendingKinds;
+            writes = pendingWrites;
+            rollups = pendingRollups;
+            actions = pendingActions;
+            pendingKinds = new LinkedHashMap<Integer, String>();
+            pendingWrites = new LinkedHashMap<String, PendingWrite>();
+            pendingRollups = new LinkedHashMap<String, PeriodTotals>();
+            pendingActions = new ArrayList<Runnable>();
+            flushScheduled = false;
+            writingWrites = writes;
+        }
+        if (kinds.isEmpty() && writes.isEmpty() && rollups.isEmpty() && actions.isEmpty()) {
+            return;
+        }
+
+        List<Transaction> transactionsToSave = new ArrayList<Transaction>();
+        List<String> guidsToDelete = new ArrayList<String>();
+        List<String> guidsToClearPending = new ArrayList<String>();
+        for (PendingWrite write : writes.values()) {
+            switch (write.type) {
+                case SAVE:
+                    transactionsToSave.add(write.transaction);
+                    break;
+                case DELETE:
+                    guidsToDelete.add(write.transaction.getGuid());
+                    break;
+                case CLEAR_PENDING:
+                    guidsToClearPending.add(write.transaction.getGuid());
+                    break;
+            }
+        }
+
+        // Any failure, not only a database one, has to put the writes back, otherwise they are lost and stay uncommitted for the readers forever
+        boolean written = false;
+        try {
+            dataSource.applyChanges(kinds, transactionsToSave, guidsToDelete, guidsToClearPending, rollups.values());
+            written = true;
+        } catch (SQLException e) {
+            Log.e(TAG, "Writing " + writes.size() + " transactions failed, they stay queued", e);
+        } finally {
+            if (written) {
+                synchronized (this) {
+                    writingWrites = Collections.emptyMap();
+                    retryDelay = MIN_RETRY_DELAY;
+                }
+            } else {
+                requeue(kinds, writes, rollups, actions);
+            }
+        }
+        if (!written) {
+            return;
+        }
+
+        Log.d(TAG, "Written transactions: " + writes.size() + ", period totals: " + rollups.size());
+        for (Runnable action : actions) {
+            action.run();
+        }
+    }
+
+    /**
+     * Puts failed writes back to the queue and schedules retry. Writes queued in the meantime are newer, so they are kept. The delay of the retry
+     * doubles with every failure in a row, writes queued before the retry wait for it.
+     *
+     * @param kinds   Failed kind writes
+     * @param writes  Failed transaction writes
+     * @param rollups Failed period totals writes
+     * @param actions Actions waiting for the writes
+     */
+    private synchronized void requeue(Map<Integer, String> kinds, Map<String, PendingWrite> writes, Map<String, PeriodTotals> rollups, List<Runnable> actions) {
+        kinds.putAll(pendingKinds);
+        pendingKinds = kinds;
+        for (PendingWrite write : pendingWrites.values()) {
+            putWrite(writes, write);
+        }
+        pendingWrites = writes;
+        writingWrites = Collections.emptyMap();
+        rollups.putAll(pendingRollups);
+        pendingRollups = rollups;
+        actions.addAll(pendingActions);
+        pendingActions = actions;
+
+        Log.d(TAG, "Retrying write in " + retryDelay + " ms");
+        flushScheduled = true;
+        executor.schedule(flushTask, retryDelay, TimeUnit.MILLISECONDS);
+        retryDelay = Math.min(retryDelay * 2, MAX_RETRY_DELAY);
+    }
+
+    /**
+     * Puts write to the map of writes, it replaces the previous write of the same transaction. Clearing of the pending flag does not replace
+     * a queued deletion and it is applied to a queued save, so the save is not overwritten by an older state.
+     *
+     * @param writes Writes by transaction GUID
+     * @param write  New write
+     */
+    private static void putWrite(Map<String, PendingWrite> writes, PendingWrite write) {
+        String guid = write.transaction.getGuid();
+        if (write.type == PendingWrite.Type.CLEAR_PENDING) {
+            PendingWrite queued = writes.get(guid);
+            if (queued != null && queued.type == PendingWrite.Type.SAVE) {
+                // Queued transaction can be displayed, change a copy
+                Transaction syncedTransaction = new Transaction(queued.transaction);
+                syncedTransaction.setPending(false);
+                writes.put(guid, new PendingWrite(syncedTransaction, PendingWrite.Type.SAVE));
+                return;
+            } else if (queued != null) {
+                return;
+            }
+        }
+        writes.put(guid, write);
+    }
+
+    /**
+     * Puts the versions of transactions after the writes to the map, they replace the older versions in the map.
+     *
+     * @param result Transactions by their GUID
+     * @param writes Writes by transaction GUID
+     */
+    private static void putUncommitted(Map<String, Transaction> result, Map<String, PendingWrite> writes) {
+        for (PendingWrite write : writes.values()) {
+            String guid = write.transaction.getGuid();
+            Transaction transaction = write.transaction;
+            if (write.type == PendingWrite.Type.DELETE && !transaction.isDeleted()) {
+                transaction = new Transaction(transaction);
+                transaction.setDeleted(true);
+            } else if (write.type == PendingWrite.Type.CLEAR_PENDING) {
+                Transaction previous = result.get(guid);
+                if (previous != null && previous.isDeleted()) {
+                    continue;
+                }
+                transaction = new Transaction(previous != null ? previous : transaction);
+                transaction.setPending(false);
+            }
+            result.put(guid, transaction);
+        }
+    }
+
+    /**
+     * Queued write of one transaction
+     */
+    private static class PendingWrite {
+
+        /**
+         * Type of the write
+         */
+        enum Type {
+            /**
+             * Transaction is saved
+             */
+            SAVE,
+            /**
+             * Transaction is removed from the database
+             */
+            DELETE,
+            /**
+             * Only pending flag of the stored transaction is cleared
+             */
+            CLEAR_PENDING
+        }
+
+        /**
+         * Transaction to write
+         */
+        final Transaction transaction;
+
+        /**
+         * Type of the write
+         */
+        final Type type;
+
+        PendingWrite(Transaction transaction, Type type) {
+            this.transaction = transaction;
+            this.type = type;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package cz.avast.personalbudget.entity;
+
+import java.io.Serializable;
+
+/**
+ * Entity for holding totals of transactions in one calendar period (day, week, month or year)
+ */
+public class PeriodTotals implements Serializable {
+
+    /**
+     * Type of the calendar period.
+     */
+    public enum Period {
+        DAY, WEEK, MONTH, YEAR
+    }
+
+    /**
+     * Type of the period
+     */
+    private Period period;
+
+    /**
+     * Start of the period in the form of timestamp (local time).
+     */
+    private long start;
+
+    /**
+     * Sum of incoming payments in minor currency units
+     */
+    private long income;
+
+    /**
+     * Sum of outgoing payments in minor currency units. The value is positive.
+     */
+    private long expense;
+
+    /**
+     * Number of transactions in the period
+     */
+    private int count;
+
+    public PeriodTotals() {
+    }
+
+    public PeriodTotals(Period period, long start) {
+        this.period = period;
+        this.start = start;
+    }
+
+    /**
+     * Creates copy of the totals.
+     *
+     * @param totals Totals to copy
+     */
+    public PeriodTotals(PeriodTotals totals) {
+        this.period = totals.period;
+        this.start = totals.start;
+        this.income = totals.income;
+        this.expense = totals.expense;
+        this.count = totals.count;
+    }
+
+    public Period getPeriod() {
+        return period;
+    }
+
+    public void setPeriod(Period period) {
+        this.period = period;
+    }
+
+    public long getStart() {
+        return start;
+    }
+
+    public void setStart(long start) {
+        this.start = start;
+    }
+
+    public long getIncome() {
+        return income;
+    }
+
+    public void setIncome(long income) {
+        this.income = income;
+    }
+
+    public long getExpense() {
+        return expense;
+    }
+
+    public void setExpense(long expense) {
+        this.expense = expense;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public void setCount(int count) {
+        this.count = count;
+    }
+
+    /**
+     * Returns difference between income and expense.
+     *
+     * @return Net value in minor currency units
+     */
+    public long getNet() {
+        return income - expense;
+    }
+
+    /**
+     * Adds transaction value to the totals. Use negative count to remove the value.
+     *
+     * @param value Value of the transaction in minor currency units
+     * @param count 1 for adding, -1 for removing
+     */
+    public void add(long value, int count) {
+        if (value < 0) {
+            expense -= value * count;
+        } else {
+            income += value * count;
+        }
+        this.count += count;
+    }
+}
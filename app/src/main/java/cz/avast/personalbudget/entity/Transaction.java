@@ -9,15 +9,20 @@ import java.io.Serializable;
  */
 public class Transaction implements Serializable {
 
+    /**
+     * Kind id of a transaction whose kind is not in the kind dictionary yet
+     */
+    public static final int NO_KIND_ID = -1;
+
     /**
      * Transaction GUID
      */
     private String guid;
 
     /**
-     * Payment value
+     * Payment value in minor currency units (hundredths)
      */
-    private double value;
+    private long value;
 
     /**
      * Date and time of a transaction in the form of timestamp.
@@ -29,6 +34,11 @@ public class Transaction implements Serializable {
      */
     private String kind;
 
+    /**
+     * Id of the kind in the kind dictionary, {@link #NO_KIND_ID} if it is not known
+     */
+    private int kindId = NO_KIND_ID;
+
     /**
      * Whether was this transaction deleted or not.
      */
@@ -39,6 +49,24 @@ public class Transaction implements Serializable {
      */
     private boolean pending;
 
+    public Transaction() {
+    }
+
+    /**
+     * Creates copy of the transaction.
+     *
+     * @param transaction Transaction to copy
+     */
+    public Transaction(Transaction transaction) {
+        this.guid = transaction.guid;
+        this.value = transaction.value;
+        this.date = transaction.date;
+        this.kind = transaction.kind;
+        this.kindId = transaction.kindId;
+        this.deleted = transaction.deleted;
+        this.pending = transaction.pending;
+    }
+
     public boolean isPending() {
         return pending;
     }
@@ -63,11 +91,11 @@ public class Transaction implements Serializable {
         this.guid = guid;
     }
 
-    public double getValue() {
+    public long getValue() {
         return value;
     }
 
-    public void setValue(double value) {
+    public void setValue(long value) {
         this.value = value;
     }
 
@@ -85,6 +113,22 @@ public class Transaction implements Serializable {
 
     public void setKind(String kind) {
         this.kind = kind;
+        this.kindId = NO_KIND_ID;
+    }
+
+    public int getKindId() {
+        return kindId;
+    }
+
+    /**
+     * Sets kind together with its id from the kind dictionary.
+     *
+     * @param kind   Description of the transaction, the instance shared by the dictionary
+     * @param kindId Id of the kind
+     */
+    public void setKind(String kind, int kindId) {
+        this.kind = kind;
+        this.kindId = kindId;
     }
 
     /**
@@ -96,10 +140,23 @@ public class Transaction implements Serializable {
     @Override
     public boolean equals(Object object) {
         if (object instanceof Transaction) {
-            if (guid.equals(((Transaction) object).getGuid())) {
+            if (guid != null && guid.equals(((Transaction) object).getGuid())) {
                 return true;
             }
         }
         return super.equals(object);
     }
+
+    /**
+     * Hash code consistent with {@link #equals(Object)}. Transactions with the same GUID have the same hash code.
+     *
+     * @return Hash code of the GUID
+     */
+    @Override
+    public int hashCode() {
+        if (guid != null) {
+            return guid.hashCode();
+        }
+        return super.hashCode();
+    }
 }
@@ -0,0 +1,147 @@
+package cz.avast.personalbudget.model;
+
+/**
+ * Prefix sum index of transaction values by day. Values are summed per day number and the day sums are kept in a Fenwick tree,
+ * so both the update and the sum of all days before a given day take O(log d), where d is the number of days between the oldest and the newest transaction.
+ * Day numbers are given by the caller, {@link PeriodRollups} uses local days of its time zone, so the index always agrees with its day buckets.
+ */
+public class BalanceIndex {
+
+    /**
+     * Initial number of days the index can hold without growing
+     */
+    private static final int INITIAL_CAPACITY = 64;
+
+    /**
+     * Day number of the first day in the index
+     */
+    private long firstDay;
+
+    /**
+     * Sum of values for every day in the index. daySums[0] belongs to the firstDay.
+     */
+    private long[] daySums;
+
+    /**
+     * Fenwick tree over the day sums. Indexes are shifted by one, tree[0] is not used.
+     */
+    private long[] tree;
+
+    /**
+     * Sum of all values in the index
+     */
+    private long total;
+
+    /**
+     * Whether the index contains any day yet
+     */
+    private boolean empty = true;
+
+    /**
+     * Removes all values from the index.
+     */
+    public void clear() {
+        daySums = null;
+        tree = null;
+        total = 0;
+        empty = true;
+    }
+
+    /**
+     * Adds value to the day. Use negative value to remove it.
+     *
+     * @param day   Day number
+     * @param value Value in minor currency units
+     */
+    public void add(long day, long value) {
+        ensureDay(day);
+
+        int position = (int) (day - firstDay);
+        daySums[position] += value;
+        for (int i = position + 1; i < tree.length; i += i & -i) {
+            tree[i] += value;
+        }
+        total += value;
+    }
+
+    /**
+     * Returns sum of all values in days before the given day.
+     *
+     * @param day Day number
+     * @return Sum in minor currency units
+     */
+    public long sumBeforeDay(long day) {
+        if (empty || day <= firstDay) {
+            return 0;
+        }
+        long count = day - firstDay;
+        if (count >= daySums.length) {
+            return total;
+        }
+
+        long sum = 0;
+        for (int i = (int) count; i > 0; i -= i & -i) {
+            sum += tree[i];
+        }
+        return sum;
+    }
+
+    /**
+     * Returns sum of all values in the index.
+     *
+     * @return Sum in minor currency units
+     */
+    public long getTotal() {
+        return total;
+    }
+
+    /**
+     * Makes sure the day fits into the index. When it does not, the index is moved or enlarged and the tree is built again from the day sums.
+     *
+     * @param day Day number
+     */
+    private void ensureDay(long day) {
+        if (empty) {
+            firstDay = day - INITIAL_CAPACITY / 2;
+            daySums = new long[INITIAL_CAPACITY];
+            tree = new long[INITIAL_CAPACITY + 1];
+            empty = false;
+            return;
+        }
+        long lastDay = firstDay + daySums.length - 1;
+        if (day >= firstDay && day <= lastDay) {
+            return;
+        }
+
+        // Grow at least twice, so rebuilding the tree is amortized
+        long newFirstDay = Math.min(firstDay, day);
+        long newLastDay = Math.max(lastDay, day);
+        long length = Math.max(newLastDay - newFirstDay + 1, 2L * daySums.length);
+        if (day < firstDay) {
+            newFirstDay = newLastDay - length + 1;
+        }
+        if (length > Integer.MAX_VALUE - 1) {
+            throw new IllegalArgumentException("Date out of range: " + day);
+        }
+
+        long[] newDaySums = new long[(int) length];
+        System.arraycopy(daySums, 0, newDaySums, (int) (firstDay - newFirstDay), daySums.length);
+        firstDay = newFirstDay;
+        daySums = newDaySums;
+        rebuildTree();
+    }
+
+    /**
+     * Builds the Fenwick tree from the day sums in linear time.
+     */
+    private void rebuildTree() {
+        tree = new long[daySums.length + 1];
+        for (int i = 1; i < tree.length; i++) {
+            tree[i] += daySums[i - 1];
+            int parent = i + (i & -i);
+            if (parent < tree.length) {
+                tree[parent] += tree[i];
+            }
+        }
+    }
+}
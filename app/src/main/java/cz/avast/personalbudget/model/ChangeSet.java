@@ -0,0 +1,295 @@
+package cz.avast.personalbudget.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Changes of the budget list between two consecutive snapshots. Changes are ordered, position of every change refers to the list
+ * after all previous changes were applied, the same way as the list is changed step by step. Adjacent changes of the same type are joined
+ * to ranges, so e.g. a loaded page is a single insertion.
+ * <p/>
+ * Running balance of a row depends on the rows below it, so every change affects also running balances of all rows above it.
+ */
+public class ChangeSet {
+
+    /**
+     * Type of the change
+     */
+    public enum Type {
+        /**
+         * Rows were inserted at the position
+         */
+        INSERTED,
+        /**
+         * Rows were removed from the position
+         */
+        REMOVED,
+        /**
+         * Row was moved from the position to another one
+         */
+        MOVED,
+        /**
+         * Rows at the position were changed in place
+         */
+        CHANGED
+    }
+
+    /**
+     * Ordered changes of the list
+     */
+    private final List<Change> changes;
+
+    /**
+     * Whether the balance changed
+     */
+    private final boolean balanceChanged;
+
+    private ChangeSet(List<Change> changes, boolean balanceChanged) {
+        this.changes = Collections.unmodifiableList(changes);
+        this.balanceChanged = balanceChanged;
+    }
+
+    /**
+     * Returns changes of the list in the order they have to be applied.
+     *
+     * @return Unmodifiable list of changes
+     */
+    public List<Change> getChanges() {
+        return changes;
+    }
+
+    public boolean isBalanceChanged() {
+        return balanceChanged;
+    }
+
+    /**
+     * Checks whether the list was not changed.
+     *
+     * @return True if there are no changes of the list
+     */
+    public boolean isEmpty() {
+        return changes.isEmpty();
+    }
+
+    /**
+     * Checks whether rows were inserted or removed, i.e. the number of rows may have changed.
+     *
+     * @return True if there is an insertion or a removal
+     */
+    public boolean isStructural() {
+        for (Change change : changes) {
+            if (change.getType() == Type.INSERTED || change.getType() == Type.REMOVED) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the last position in the changed list whose row or running balance may have changed. All rows above it may have changed as well,
+     * rows below it did not change.
+     *
+     * @return Position in the changed list, -1 if no row changed
+     */
+    public int getLastAffectedPosition() {
+        int last = -1;
+        for (Change change : changes) {
+            switch (change.getType()) {
+                case INSERTED:
+                    if (last >= change.getPosition()) {
+                        last += change.getCount();
+                    }
+                    last = Math.max(last, change.getPosition() + change.getCount() - 1);
+                    break;
+                case REMOVED:
+                    if (last >= change.getPosition() + change.getCount()) {
+                        last -= change.getCount();
+                    } else {
+                        // Rows above the removed ones lost them from their running balance
+                        last = change.getPosition() - 1;
+                    }
+                    break;
+                case MOVED:
+                    last = Math.max(last, Math.max(change.getPosition(), change.getToPosition()));
+                    break;
+                case CHANGED:
+                    last = Math.max(last, change.getPosition() + change.getCount() - 1);
+                    break;
+            }
+        }
+        return last;
+    }
+
+    /**
+     * One change of the list
+     */
+    public static class Change {
+
+        /**
+         * Type of the change
+         */
+        private final Type type;
+
+        /**
+         * Position of the first changed row
+         */
+        private final int position;
+
+        /**
+         * Number of changed rows, 1 for a move
+         */
+        private int count;
+
+        /**
+         * New position of the moved row, equal to the position for other changes
+         */
+        private final int toPosition;
+
+        Change(Type type, int position, int count, int toPosition) {
+            this.type = type;
+            this.position = position;
+            this.count = count;
+            this.toPosition = toPosition;
+        }
+
+        public Type getType() {
+            return type;
+        }
+
+        public int getPosition() {
+            return position;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public int getToPosition() {
+            return toPosition;
+        }
+
+        @Override
+        public String toString() {
+            return type + "(" + position + (type == Type.MOVED ? "->" + toPosition : ", " + count) + ")";
+        }
+    }
+
+    /**
+     * Collects changes made by the writer until the next snapshot is published
+     */
+    public static class Builder {
+
+        /**
+         * Collected changes
+         */
+        private List<Change> changes = new ArrayList<Change>();
+
+        /**
+         * Whether the balance changed
+         */
+        private boolean balanceChanged;
+
+        /**
+         * Records insertion of rows.
+         *
+         * @param position Position of the first inserted row
+         * @param count    Number of inserted rows
+         */
+        public void inserted(int position, int count) {
+            if (count <= 0) {
+                return;
+            }
+            Change last = getLast(Type.INSERTED);
+            if (last != null && position >= last.position && position <= last.position + last.count) {
+                last.count += count;
+            } else {
+                changes.add(new Change(Type.INSERTED, position, count, position));
+            }
+        }
+
+        /**
+         * Records removal of rows.
+         *
+         * @param position Position of the first removed row
+         * @param count    Number of removed rows
+         */
+        public void removed(int position, int count) {
+            if (count <= 0) {
+                return;
+            }
+            Change last = getLast(Type.REMOVED);
+            if (last != null && position == last.position) {
+                last.count += count;
+            } else if (last != null && position + count == last.position) {
+                changes.remove(changes.size() - 1);
+                changes.add(new Change(Type.REMOVED, position, last.count + count, position));
+            } else {
+                changes.add(new Change(Type.REMOVED, position, count, position));
+            }
+        }
+
+        /**
+         * Records move of the row. Row which stays at its position is recorded as changed.
+         *
+         * @param from Old position of the row
+         * @param to   New position of the row
+         */
+        public void moved(int from, int to) {
+            if (from == to) {
+                changed(from);
+            } else {
+                changes.add(new Change(Type.MOVED, from, 1, to));
+            }
+        }
+
+        /**
+         * Records change of the row in place.
+         *
+         * @param position Position of the row
+         */
+        public void changed(int position) {
+            Change last = getLast(Type.CHANGED);
+            if (last != null && position >= last.position && position <= last.position + last.count) {
+                if (position == last.position + last.count) {
+                    last.count++;
+                }
+            } else {
+                changes.add(new Change(Type.CHANGED, position, 1, position));
+            }
+        }
+
+        /**
+         * Records change of the balance.
+         */
+        public void balanceChanged() {
+            balanceChanged = true;
+        }
+
+        /**
+         * Creates change set of the collected changes and starts collecting again.
+         *
+         * @return Change set
+         */
+        public ChangeSet build() {
+            ChangeSet changeSet = new ChangeSet(changes, balanceChanged);
+            changes = new ArrayList<Change>();
+            balanceChanged = false;
+            return changeSet;
+        }
+
+        /**
+         * Returns the last change if it has the type.
+         *
+         * @param type Type of the change
+         * @return The last change or null
+         */
+        private Change getLast(Type type) {
+            if (changes.isEmpty()) {
+                return null;
+            }
+            Change last = changes.get(changes.size() - 1);
+            return last.type == type ? last : null;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package cz.avast.personalbudget.model;
+
+import java.util.List;
+
+import cz.avast.personalbudget.entity.Transaction;
+
+/**
+ * Immutable state of the data model published after every change. Snapshot can be read from any thread without locking.
+ */
+public class DataSnapshot {
+
+    /**
+     * Version of the data, every change of the data model increases it
+     */
+    private final long version;
+
+    /**
+     * Balance in minor currency units
+     */
+    private final long balance;
+
+    /**
+     * Displayed transactions sorted from the newest. Older transactions may not be loaded yet.
+     */
+    private final TransactionList.Frozen transactions;
+
+    /**
+     * Whether all transactions are loaded
+     */
+    private final boolean complete;
+
+    public DataSnapshot(long version, long balance, TransactionList.Frozen transactions, boolean complete) {
+        this.version = version;
+        this.balance = balance;
+        this.transactions = transactions;
+        this.complete = complete;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public long getBalance() {
+        return balance;
+    }
+
+    /**
+     * Returns whether all transactions are loaded. If not, older transactions can be loaded by {@link cz.avast.personalbudget.DataModel#loadMoreTransactions()}.
+     *
+     * @return True if the list contains all transactions
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * Returns displayed transactions. The list cannot be modified and the transactions in it must not be modified either.
+     *
+     * @return List of transactions
+     */
+    public List<Transaction> getTransactions() {
+        return transactions;
+    }
+
+    /**
+     * Returns loaded transactions in the date range. Takes O(log n), the transactions are not copied.
+     *
+     * @param from Start of the range (inclusive)
+     * @param to   End of the range (exclusive)
+     * @return Transactions in the range
+     */
+    public TransactionRange getRange(long from, long to) {
+        return new TransactionRange(transactions, from, to, complete);
+    }
+
+    /**
+     * Returns balance right after the transaction at the position, i.e. sum of the transaction and all transactions below it.
+     * Transactions which are not loaded yet are below the loaded ones, so it is the balance without the transactions above the position.
+     *
+     * @param position Index of the transaction
+     * @return Balance in minor currency units
+     */
+    public long getRunningBalance(int position) {
+        return balance - transactions.getSum() + transactions.sumFrom(position);
+    }
+}
@@ -0,0 +1,219 @@
+package cz.avast.personalbudget.model;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Map from transaction GUID to the transaction date, which is enough to find the transaction in the sorted list. GUIDs in the canonical form
+ * are kept packed in an open addressing table of primitive arrays, so the index does not keep any object per transaction. Other GUIDs
+ * are kept in an ordinary map.
+ */
+public class GuidIndex {
+
+    /**
+     * Date returned for GUIDs which are not in the index
+     */
+    public static final long NO_DATE = Long.MIN_VALUE;
+
+    /**
+     * High parts of the packed GUIDs
+     */
+    private long[] highs;
+
+    /**
+     * Low parts of the packed GUIDs
+     */
+    private long[] lows;
+
+    /**
+     * Dates of the transactions
+     */
+    private long[] dates;
+
+    /**
+     * Whether the slot is used
+     */
+    private boolean[] used;
+
+    /**
+     * Number of packed GUIDs in the table
+     */
+    private int packedCount;
+
+    /**
+     * Dates of transactions with GUIDs which cannot be packed
+     */
+    private final Map<String, Long> otherGuids = new HashMap<String, Long>();
+
+    public GuidIndex() {
+        allocate(16);
+    }
+
+    /**
+     * Returns number of GUIDs in the index.
+     *
+     * @return Number of GUIDs
+     */
+    public int size() {
+        return packedCount + otherGuids.size();
+    }
+
+    /**
+     * Checks whether the GUID is in the index.
+     *
+     * @param guid GUID
+     * @return True if the GUID is in the index
+     */
+    public boolean contains(String guid) {
+        return getDate(guid) != NO_DATE;
+    }
+
+    /**
+     * Returns date of the transaction with the GUID.
+     *
+     * @param guid GUID
+     * @return Date or {@link #NO_DATE} if the GUID is not in the index
+     */
+    public long getDate(String guid) {
+        if (!PackedGuid.isPackable(guid)) {
+            Long date = otherGuids.get(guid);
+            return date != null ? date : NO_DATE;
+        }
+        int slot = find(PackedGuid.high(guid), PackedGuid.low(guid));
+        return used[slot] ? dates[slot] : NO_DATE;
+    }
+
+    /**
+     * Puts the GUID to the index or changes its date.
+     *
+     * @param guid GUID
+     * @param date Date of the transaction
+     */
+    public void put(String guid, long date) {
+        if (!PackedGuid.isPackable(guid)) {
+            otherGuids.put(guid, date);
+            return;
+        }
+        long high = PackedGuid.high(guid);
+        long low = PackedGuid.low(guid);
+        int slot = find(high, low);
+        if (!used[slot]) {
+            // Keep the table at most half full, so the probe sequences stay short
+            if ((packedCount + 1) * 2 > used.length) {
+                grow();
+                slot = find(high, low);
+            }
+            used[slot] = true;
+            highs[slot] = high;
+            lows[slot] = low;
+            packedCount++;
+        }
+        dates[slot] = date;
+    }
+
+    /**
+     * Removes the GUID from the index.
+     *
+     * @param guid GUID
+     * @return Date of the removed transaction or {@link #NO_DATE} if the GUID was not in the index
+     */
+    public long remove(String guid) {
+        if (!PackedGuid.isPackable(guid)) {
+            Long date = otherGuids.remove(guid);
+            return date != null ? date : NO_DATE;
+        }
+        int slot = find(PackedGuid.high(guid), PackedGuid.low(guid));
+        if (!used[slot]) {
+            return NO_DATE;
+        }
+        long date = dates[slot];
+        used[slot] = false;
+        packedCount--;
+
+        // Move the following entries of the probe sequence back, so no entry is behind an empty slot
+        int mask = used.length - 1;
+        int empty = slot;
+        for (int next = (slot + 1) & mask; used[next]; next = (next + 1) & mask) {
+            int home = hash(highs[next], lows[next]) & mask;
+            // The entry can be moved if its home slot is not between the empty slot and its position (cyclically)
+            if (((next - home) & mask) >= ((next - empty) & mask)) {
+                highs[empty] = highs[next];
+                lows[empty] = lows[next];
+                dates[empty] = dates[next];
+                used[empty] = true;
+                used[next] = false;
+                empty = next;
+            }
+        }
+        return date;
+    }
+
+    /**
+     * Removes all GUIDs from the index.
+     */
+    public void clear() {
+        allocate(16);
+        packedCount = 0;
+        otherGuids.clear();
+    }
+
+    /**
+     * Finds slot of the packed GUID or the empty slot where it belongs.
+     *
+     * @param high High part of the GUID
+     * @param low  Low part of the GUID
+     * @return Slot index
+     */
+    private int find(long high, long low) {
+        int mask = used.length - 1;
+        int slot = hash(high, low) & mask;
+        while (used[slot] && (highs[slot] != high || lows[slot] != low)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Doubles the table and puts all entries to their new slots.
+     */
+    private void grow() {
+        long[] oldHighs = highs;
+        long[] oldLows = lows;
+        long[] oldDates = dates;
+        boolean[] oldUsed = used;
+        allocate(oldUsed.length * 2);
+        for (int i = 0; i < oldUsed.length; i++) {
+            if (oldUsed[i]) {
+                int slot = find(oldHighs[i], oldLows[i]);
+                used[slot] = true;
+                highs[slot] = oldHighs[i];
+                lows[slot] = oldLows[i];
+                dates[slot] = oldDates[i];
+            }
+        }
+    }
+
+    /**
+     * Allocates empty table.
+     *
+     * @param capacity Number of slots, power of two
+     */
+    private void allocate(int capacity) {
+        highs = new long[capacity];
+        lows = new long[capacity];
+        dates = new long[capacity];
+        used = new boolean[capacity];
+    }
+
+    /**
+     * Spreads bits of the GUID. GUIDs are mostly random, but the mixing keeps also sequential ones apart.
+     *
+     * @param high High part of the GUID
+     * @param low  Low part of the GUID
+     * @return Hash code
+     */
+    private static int hash(long high, long low) {
+        long h = (high ^ low) * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
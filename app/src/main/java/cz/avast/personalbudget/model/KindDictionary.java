@@ -0,0 +1,148 @@
+package cz.avast.personalbudget.model;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import cz.avast.personalbudget.entity.Transaction;
+
+/**
+ * Dictionary of transaction kinds. Every distinct kind gets a small integer id, so it is stored only once and the kinds can be stored
+ * in primitive arrays and compared as integers. Ids are never removed or reused. The dictionary is persisted in the database,
+ * kinds added since the last save are returned by {@link #takeAdded()}.
+ * <p/>
+ * The dictionary is changed only by the writer. Entries of the array returned by {@link #getNames()} never change once they are assigned,
+ * so the array can be handed to readers together with a published snapshot.
+ */
+public class KindDictionary {
+
+    /**
+     * Ids of the kinds
+     */
+    private final Map<String, Integer> ids = new HashMap<String, Integer>();
+
+    /**
+     * Kinds by their id, only first size of them are used
+     */
+    private String[] names = new String[16];
+
+    /**
+     * Number of used ids (the highest id plus one)
+     */
+    private int size;
+
+    /**
+     * Ids below this one are saved in the database
+     */
+    private int savedSize;
+
+    /**
+     * Returns id of the kind. Unknown kind is added to the dictionary.
+     *
+     * @param kind Kind
+     * @return Id of the kind
+     */
+    public int getId(String kind) {
+        Integer id = ids.get(kind);
+        if (id != null) {
+            return id;
+        }
+
+        ensureCapacity(size + 1);
+        names[size] = kind;
+        ids.put(kind, size);
+        return size++;
+    }
+
+    /**
+     * Returns id of the kind without adding it.
+     *
+     * @param kind Kind
+     * @return Id of the kind or {@link Transaction#NO_KIND_ID} if the kind is not in the dictionary
+     */
+    public int findId(String kind) {
+        Integer id = ids.get(kind);
+        return id != null ? id : Transaction.NO_KIND_ID;
+    }
+
+    /**
+     * Sets kind of the transaction to the shared instance from the dictionary together with its id. Unknown kind is added to the dictionary.
+     *
+     * @param transaction Transaction
+     */
+    public void intern(Transaction transaction) {
+        if (transaction.getKindId() == Transaction.NO_KIND_ID) {
+            int id = getId(transaction.getKind());
+            transaction.setKind(names[id], id);
+        }
+    }
+
+    /**
+     * Adds kind loaded from the database with its saved id.
+     *
+     * @param id   Id of the kind
+     * @param kind Kind
+     */
+    public void load(int id, String kind) {
+        ensureCapacity(id + 1);
+        names[id] = kind;
+        ids.put(kind, id);
+        size = Math.max(size, id + 1);
+        savedSize = size;
+    }
+
+    /**
+     * Returns kinds added since the last call and considers them saved.
+     *
+     * @return Added kinds by their id
+     */
+    public Map<Integer, String> takeAdded() {
+        Map<Integer, String> added = new LinkedHashMap<Integer, String>();
+        for (int id = savedSize; id < size; id++) {
+            added.put(id, names[id]);
+        }
+        savedSize = size;
+        return added;
+    }
+
+    /**
+     * Returns kind with the id.
+     *
+     * @param id Id of the kind
+     * @return Kind
+     */
+    public String getName(int id) {
+        return names[id];
+    }
+
+    /**
+     * Returns array of the kinds by their id. Assigned entries of the array never change.
+     *
+     * @return Array of the kinds
+     */
+    public String[] getNames() {
+        return names;
+    }
+
+    /**
+     * Returns number of used ids.
+     *
+     * @return The highest id plus one
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Grows the array of kinds if needed. Old array is not changed, readers can still use it.
+     *
+     * @param capacity Required number of entries
+     */
+    private void ensureCapacity(int capacity) {
+        if (capacity > names.length) {
+            String[] newNames = new String[Math.max(capacity, names.length * 2)];
+            System.arraycopy(names, 0, newNames, 0, size);
+            names = newNames;
+        }
+    }
+}
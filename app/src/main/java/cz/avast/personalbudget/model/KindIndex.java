@@ -0,0 +1,405 @@
+package cz.avast.personalbudget.model;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+
+/**
+ * Aggregates of transactions by their kind (description). For every kind it keeps count, sum, minimum and maximum of all transactions
+ * and sum and count for every calendar month, so totals for a date range do not need to visit every transaction.
+ * Kinds are identified by their id from the {@link KindDictionary}.
+ */
+public class KindIndex {
+
+    /**
+     * Comparator ordering totals by the magnitude of their sum, the smallest first
+     */
+    private static final Comparator<KindTotals> magnitudeComparator = new Comparator<KindTotals>() {
+        @Override
+        public int compare(KindTotals totals, KindTotals totals2) {
+            long magnitude = Math.abs(totals.getSum());
+            long magnitude2 = Math.abs(totals2.getSum());
+            if (magnitude == magnitude2) {
+                return 0;
+            }
+            return magnitude < magnitude2 ? -1 : 1;
+        }
+    };
+
+    /**
+     * Dictionary of the kinds
+     */
+    private final KindDictionary kinds;
+
+    /**
+     * Statistics of all transactions by kind id
+     */
+    private final Map<Integer, KindStats> stats = new HashMap<Integer, KindStats>();
+
+    /**
+     * Totals by kind id for every month, months are ordered by their start
+     */
+    private final TreeMap<Long, Map<Integer, KindTotals>> months = new TreeMap<Long, Map<Integer, KindTotals>>();
+
+    /**
+     * Calendar used for finding start of the months. Local time zone is used.
+     */
+    private final Calendar calendar = Calendar.getInstance();
+
+    /**
+     * KindIndex constructor
+     *
+     * @param kinds Dictionary of the kinds
+     */
+    public KindIndex(KindDictionary kinds) {
+        this.kinds = kinds;
+    }
+
+    /**
+     * Removes all transactions from the index.
+     */
+    public void clear() {
+        stats.clear();
+        months.clear();
+    }
+
+    /**
+     * Adds transaction to the index.
+     *
+     * @param kindId Kind id of the transaction
+     * @param date   Timestamp of the transaction
+     * @param value  Value in minor currency units
+     */
+    public void add(int kindId, long date, long value) {
+        KindStats kindStats = stats.get(kindId);
+        if (kindStats == null) {
+            kindStats = new KindStats(kindId, kinds.getName(kindId));
+            stats.put(kindId, kindStats);
+        }
+        kindStats.add(value);
+
+        long month = getMonthStart(date);
+        Map<Integer, KindTotals> monthTotals = months.get(month);
+        if (monthTotals == null) {
+            monthTotals = new HashMap<Integer, KindTotals>();
+            months.put(month, monthTotals);
+        }
+        KindTotals totals = monthTotals.get(kindId);
+        if (totals == null) {
+            totals = new KindTotals(kindId, kinds.getName(kindId));
+            monthTotals.put(kindId, totals);
+        }
+        totals.add(value, 1);
+    }
+
+    /**
+     * Removes transaction from the index.
+     *
+     * @param kindId Kind id of the transaction
+     * @param date   Timestamp of the transaction
+     * @param value  Value in minor currency units
+     */
+    public void remove(int kindId, long date, long value) {
+        KindStats kindStats = stats.get(kindId);
+        if (kindStats == null) {
+            return;
+        }
+        kindStats.remove(value);
+        if (kindStats.getCount() == 0) {
+            stats.remove(kindId);
+        }
+
+        long month = getMonthStart(date);
+        Map<Integer, KindTotals> monthTotals = months.get(month);
+        if (monthTotals != null) {
+            KindTotals totals = monthTotals.get(kindId);
+            if (totals != null) {
+                totals.add(value, -1);
+                if (totals.getCount() == 0) {
+                    monthTotals.remove(kindId);
+                    if (monthTotals.isEmpty()) {
+                        months.remove(month);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns statistics of all transactions of the kind.
+     *
+     * @param kindId Kind id
+     * @return Statistics or null if there is no transaction of the kind
+     */
+    public KindStats get(int kindId) {
+        return stats.get(kindId);
+    }
+
+    /**
+     * Returns statistics of all kinds.
+     *
+     * @return Collection of statistics, it must not be modified
+     */
+    public Collection<KindStats> getAll() {
+        return Collections.unmodifiableCollection(stats.values());
+    }
+
+    /**
+     * Adds totals of whole months which start in the range to the map of totals by kind.
+     *
+     * @param fromMonth Start of the first month (inclusive)
+     * @param toMonth   Start of the month after the last one (exclusive)
+     * @param result    Totals by kind id to add to
+     */
+    public void addMonthTotals(long fromMonth, long toMonth, Map<Integer, KindTotals> result) {
+        for (Map<Integer, KindTotals> monthTotals : months.subMap(fromMonth, toMonth).values()) {
+            for (KindTotals totals : monthTotals.values()) {
+                KindTotals resultTotals = result.get(totals.getKindId());
+                if (resultTotals == null) {
+                    resultTotals = new KindTotals(totals.getKindId(), totals.getKind());
+                    result.put(totals.getKindId(), resultTotals);
+                }
+                resultTotals.add(totals);
+            }
+        }
+    }
+
+    /**
+     * Returns start of the month which contains the date.
+     *
+     * @param date Timestamp
+     * @return Timestamp of the month start
+     */
+    public long getMonthStart(long date) {
+        calendar.setTimeInMillis(date);
+        calendar.set(Calendar.DAY_OF_MONTH, 1);
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        return calendar.getTimeInMillis();
+    }
+
+    /**
+     * Returns start of the month after the month which starts at the given timestamp.
+     *
+     * @param monthStart Timestamp of the month start
+     * @return Timestamp of the next month start
+     */
+    public long getNextMonthStart(long monthStart) {
+        calendar.setTimeInMillis(monthStart);
+        calendar.add(Calendar.MONTH, 1);
+        return calendar.getTimeInMillis();
+    }
+
+    /**
+     * Selects N totals with the largest magnitude of their sum using a bounded heap. Takes O(k log N) for k totals.
+     *
+     * @param totals Totals to select from
+     * @param count  Maximal number of selected totals
+     * @return Selected totals ordered from the largest magnitude
+     */
+    public static <T extends KindTotals> List<T> selectTop(Collection<T> totals, int count) {
+        List<T> result = new ArrayList<T>();
+        if (count <= 0) {
+            return result;
+        }
+
+        // Keep N largest in the heap, the smallest of them is on the top
+        PriorityQueue<T> heap = new PriorityQueue<T>(count, magnitudeComparator);
+        for (T kindTotals : totals) {
+            if (heap.size() < count) {
+                heap.add(kindTotals);
+            } else if (magnitudeComparator.compare(kindTotals, heap.peek()) > 0) {
+                heap.poll();
+                heap.add(kindTotals);
+            }
+        }
+
+        while (!heap.isEmpty()) {
+            result.add(heap.poll());
+        }
+        Collections.reverse(result);
+        return result;
+    }
+
+    /**
+     * Count and sum of transactions of one kind.
+     */
+    public static class KindTotals {
+
+        /**
+         * Kind id of the transactions
+         */
+        private final int kindId;
+
+        /**
+         * Kind of the transactions
+         */
+        private final String kind;
+
+        /**
+         * Number of transactions
+         */
+        private int count;
+
+        /**
+         * Sum of the transaction values in minor currency units
+         */
+        private long sum;
+
+        public KindTotals(int kindId, String kind) {
+            this.kindId = kindId;
+            this.kind = kind;
+        }
+
+        public int getKindId() {
+            return kindId;
+        }
+
+        public String getKind() {
+            return kind;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public long getSum() {
+            return sum;
+        }
+
+        /**
+         * Adds transaction value to the totals. Use negative count to remove the value.
+         *
+         * @param value Value in minor currency units
+         * @param count 1 for adding, -1 for removing
+         */
+        public void add(long value, int count) {
+            this.sum += value * count;
+            this.count += count;
+        }
+
+        /**
+         * Adds other totals to these totals.
+         *
+         * @param totals Other totals
+         */
+        public void add(KindTotals totals) {
+            this.sum += totals.sum;
+            this.count += totals.count;
+        }
+    }
+
+    /**
+     * Count, sum, minimum and maximum of transactions of one kind. Values are kept in a sorted multiset, so minimum and maximum survive removals.
+     */
+    public static class KindStats extends KindTotals {
+
+        /**
+         * Number of transactions for every value, null for a detached copy
+         */
+        private final TreeMap<Long, Integer> values;
+
+        /**
+         * The smallest transaction value
+         */
+        private long min;
+
+        /**
+         * The largest transaction value
+         */
+        private long max;
+
+        public KindStats(int kindId, String kind) {
+            super(kindId, kind);
+            this.values = new TreeMap<Long, Integer>();
+        }
+
+        /**
+         * Creates detached copy of the statistics. The copy is not updated anymore.
+         *
+         * @param stats Statistics to copy
+         */
+        private KindStats(KindStats stats) {
+            super(stats.getKindId(), stats.getKind());
+            add(stats);
+            this.values = null;
+            this.min = stats.min;
+            this.max = stats.max;
+        }
+
+        /**
+         * Returns the smallest transaction value.
+         *
+         * @return Value in minor currency units
+         */
+        public long getMin() {
+            return min;
+        }
+
+        /**
+         * Returns the largest transaction value.
+         *
+         * @return Value in minor currency units
+         */
+        public long getMax() {
+            return max;
+        }
+
+        /**
+         * Returns detached copy of the statistics, which can be handed to other threads.
+         *
+         * @return Copy of the statistics
+         */
+        public KindStats copy() {
+            return new KindStats(this);
+        }
+
+        /**
+         * Adds transaction value to the statistics.
+         *
+         * @param value Value in minor currency units
+         */
+        void add(long value) {
+            add(value, 1);
+            Integer count = values.get(value);
+            values.put(value, count == null ? 1 : count + 1);
+            updateLimits();
+        }
+
+        /**
+         * Removes transaction value from the statistics.
+         *
+         * @param value Value in minor currency units
+         */
+        void remove(long value) {
+            Integer count = values.get(value);
+            if (count == null) {
+                return;
+            }
+            add(value, -1);
+            if (count == 1) {
+                values.remove(value);
+            } else {
+                values.put(value, count - 1);
+            }
+            updateLimits();
+        }
+
+        /**
+         * Reads minimum and maximum from the multiset.
+         */
+        private void updateLimits() {
+            min = values.isEmpty() ? 0 : values.firstKey();
+            max = values.isEmpty() ? 0 : values.lastKey();
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package cz.avast.personalbudget.model;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import cz.avast.personalbudget.entity.Transaction;
+
+/**
+ * Local changes waiting for sync with the backend, at most one for every transaction GUID. A later change replaces the earlier one and deleting
+ * a transaction which was created after the last sync cancels out with its creation, so the sync sends every changed transaction once. The creation
+ * does not cancel out while it is being sent, because the backend may get it, so the deletion is sent by the next sync.
+ * <p/>
+ * Sync takes the changes by {@link #markSent()} and confirms them by {@link #confirmSent()}. Changes made while the sync is running stay in the outbox.
+ */
+public class Outbox {
+
+    /**
+     * Pending changes by transaction GUID in the order of their first change
+     */
+    private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+
+    /**
+     * Transactions taken by the running sync by their GUID
+     */
+    private final Map<String, Transaction> sent = new HashMap<String, Transaction>();
+
+    /**
+     * Adds transactions which were pending when the application stopped. It is not known whether the backend has them, so they are not treated as created.
+     *
+     * @param transactions Pending transactions
+     */
+    public void load(List<Transaction> transactions) {
+        for (Transaction transaction : transactions) {
+            entries.put(transaction.getGuid(), new Entry(transaction, false));
+        }
+    }
+
+    /**
+     * Records local change of the transaction. It replaces the previous change of the same transaction.
+     *
+     * @param transaction Changed transaction, it must not be modified afterwards
+     * @param created     Whether the change creates the transaction
+     * @return False if the transaction was deleted before the backend got it, so it does not need to be synced nor stored
+     */
+    public boolean put(Transaction transaction, boolean created) {
+        Entry previous = entries.get(transaction.getGuid());
+        boolean unknownToBackend = created || (previous != null && previous.created);
+
+        if (transaction.isDeleted() && unknownToBackend && !sent.containsKey(transaction.getGuid())) {
+            entries.remove(transaction.getGuid());
+            return false;
+        }
+        entries.put(transaction.getGuid(), new Entry(transaction, unknownToBackend));
+        return true;
+    }
+
+    /**
+     * Checks whether the transaction has a local change which the backend does not know yet, i.e. it was not sent or it was changed again since it was sent.
+     *
+     * @param guid GUID of the transaction
+     * @return True if the outbox has a change of the transaction
+     */
+    public boolean contains(String guid) {
+        return entries.containsKey(guid);
+    }
+
+    /**
+     * Returns number of changed transactions.
+     *
+     * @return Number of transactions
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Returns the last change of every changed transaction.
+     *
+     * @return New list of transactions
+     */
+    public List<Transaction> getTransactions() {
+        List<Transaction> result = new ArrayList<Transaction>(entries.size());
+        for (Entry entry : entries.values()) {
+            result.add(entry.transaction);
+        }
+        return result;
+    }
+
+    /**
+     * Takes changes for sending to the backend. They stay in the outbox until they are confirmed.
+     *
+     * @return Transactions to send
+     */
+    public List<Transaction> markSent() {
+        List<Transaction> result = getTransactions();
+        sent.clear();
+        for (Transaction transaction : result) {
+            sent.put(transaction.getGuid(), transaction);
+        }
+        return result;
+    }
+
+    /**
+     * Removes sent changes after the backend accepted them. Transactions changed again since they were sent stay in the outbox,
+     * but the backend knows them now.
+     *
+     * @return Sent transactions that were removed from the outbox
+     */
+    public List<Transaction> confirmSent() {
+        List<Transaction> result = new ArrayList<Transaction>(sent.size());
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            Transaction sentTransaction = sent.get(entry.transaction.getGuid());
+            if (sentTransaction == null) {
+                continue;
+            }
+            if (sentTransaction == entry.transaction) {
+                result.add(entry.transaction);
+                iterator.remove();
+            } else {
+                entry.created = false;
+            }
+        }
+        sent.clear();
+        return result;
+    }
+
+    /**
+     * Pending change of one transaction
+     */
+    private static class Entry {
+
+        /**
+         * The last version of the transaction
+         */
+        final Transaction transaction;
+
+        /**
+         * Whether the transaction was created after the last sync, so the backend does not know it
+         */
+        boolean created;
+
+        Entry(Transaction transaction, boolean created) {
+            this.transaction = transaction;
+            this.created = created;
+        }
+    }
+}
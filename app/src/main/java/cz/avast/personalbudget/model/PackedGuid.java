@@ -0,0 +1,215 @@
+package cz.avast.personalbudget.model;
+
+/**
+ * Conversion of GUIDs between their text form and two longs or 16 bytes. Only GUIDs in the canonical form (36 characters, lower case hexadecimal digits
+ * and dashes at the standard places) can be packed, so the conversion gives back exactly the same text. Packed GUIDs compared as unsigned
+ * numbers, the high part first, are ordered the same way as their text.
+ * <p/>
+ * The database stores packed GUIDs as blobs and the other ones as text. SQLite orders every text value before every blob, so transactions
+ * with the same date are ordered by {@link #compareGuids(String, String)} everywhere, which gives the same order.
+ */
+public final class PackedGuid {
+
+    /**
+     * Length of the GUID in the canonical form
+     */
+    private static final int LENGTH = 36;
+
+    /**
+     * Number of bytes of the packed GUID
+     */
+    public static final int BYTES = 16;
+
+    /**
+     * Hexadecimal digits
+     */
+    private static final char[] DIGITS = "0123456789abcdef".toCharArray();
+
+    private PackedGuid() {
+    }
+
+    /**
+     * Checks whether the GUID is in the canonical form and can be packed.
+     *
+     * @param guid GUID
+     * @return True if the GUID can be packed
+     */
+    public static boolean isPackable(String guid) {
+        if (guid == null || guid.length() != LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < LENGTH; i++) {
+            char c = guid.charAt(i);
+            if (isDash(i)) {
+                if (c != '-') {
+                    return false;
+                }
+            } else if (!(c >= '0' && c <= '9') && !(c >= 'a' && c <= 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the first 16 hexadecimal digits of the packable GUID.
+     *
+     * @param guid GUID in the canonical form
+     * @return High part of the GUID
+     */
+    public static long high(String guid) {
+        return parse(guid, 0);
+    }
+
+    /**
+     * Returns the last 16 hexadecimal digits of the packable GUID.
+     *
+     * @param guid GUID in the canonical form
+     * @return Low part of the GUID
+     */
+    public static long low(String guid) {
+        return parse(guid, 16);
+    }
+
+    /**
+     * Creates the text form of the packed GUID.
+     *
+     * @param high High part of the GUID
+     * @param low  Low part of the GUID
+     * @return GUID in the canonical form
+     */
+    public static String toString(long high, long low) {
+        char[] chars = new char[LENGTH];
+        int digit = 0;
+        for (int i = 0; i < LENGTH; i++) {
+            if (isDash(i)) {
+                chars[i] = '-';
+            } else {
+                long part = digit < 16 ? high : low;
+                int shift = (15 - digit % 16) * 4;
+                chars[i] = DIGITS[(int) (part >>> shift) & 0xf];
+                digit++;
+            }
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Packs the GUID to 16 bytes, the high part first. Byte arrays compared as unsigned bytes are ordered the same way as the text.
+     *
+     * @param guid GUID in the canonical form
+     * @return 16 bytes of the GUID
+     */
+    public static byte[] toBytes(String guid) {
+        byte[] bytes = new byte[BYTES];
+        putLong(bytes, 0, high(guid));
+        putLong(bytes, 8, low(guid));
+        return bytes;
+    }
+
+    /**
+     * Creates the text form of the GUID packed by {@link #toBytes(String)}.
+     *
+     * @param bytes 16 bytes of the GUID
+     * @return GUID in the canonical form
+     */
+    public static String fromBytes(byte[] bytes) {
+        return toString(getLong(bytes, 0), getLong(bytes, 8));
+    }
+
+    /**
+     * Compares two packed GUIDs as unsigned numbers.
+     *
+     * @param high  High part of the first GUID
+     * @param low   Low part of the first GUID
+     * @param high2 High part of the second GUID
+     * @param low2  Low part of the second GUID
+     * @return Negative, zero or positive number like {@link String#compareTo(String)} of their text
+     */
+    public static int compare(long high, long low, long high2, long low2) {
+        if (high != high2) {
+            return high + Long.MIN_VALUE < high2 + Long.MIN_VALUE ? -1 : 1;
+        }
+        if (low != low2) {
+            return low + Long.MIN_VALUE < low2 + Long.MIN_VALUE ? -1 : 1;
+        }
+        return 0;
+    }
+
+    /**
+     * Compares two GUIDs in the order of the database. GUIDs which cannot be packed are stored as text and go first, ordered by their text.
+     * Packed GUIDs are stored as blobs and go after them, ordered by their text too.
+     *
+     * @param guid  The first GUID
+     * @param guid2 The second GUID
+     * @return Negative, zero or positive number if the first GUID is before, equal to or after the second one
+     */
+    public static int compareGuids(String guid, String guid2) {
+        boolean packable = isPackable(guid);
+        if (packable != isPackable(guid2)) {
+            return packable ? 1 : -1;
+        }
+        return guid.compareTo(guid2);
+    }
+
+    /**
+     * Parses 16 hexadecimal digits of the GUID, dashes are skipped.
+     *
+     * @param guid       GUID in the canonical form
+     * @param firstDigit Index of the first digit (not counting dashes)
+     * @return Parsed number
+     */
+    private static long parse(String guid, int firstDigit) {
+        long result = 0;
+        int digit = 0;
+        for (int i = 0; i < LENGTH && digit < firstDigit + 16; i++) {
+            if (isDash(i)) {
+                continue;
+            }
+            if (digit >= firstDigit) {
+                result = (result << 4) | Character.digit(guid.charAt(i), 16);
+            }
+            digit++;
+        }
+        return result;
+    }
+
+    /**
+     * Writes the number to 8 bytes, the most significant byte first.
+     *
+     * @param bytes  Target array
+     * @param offset Index of the first byte
+     * @param value  Number
+     */
+    private static void putLong(byte[] bytes, int offset, long value) {
+        for (int i = 7; i >= 0; i--) {
+            bytes[offset + i] = (byte) value;
+            value >>>= 8;
+        }
+    }
+
+    /**
+     * Reads the number from 8 bytes, the most significant byte first.
+     *
+     * @param bytes  Source array
+     * @param offset Index of the first byte
+     * @return Number
+     */
+    private static long getLong(byte[] bytes, int offset) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (bytes[offset + i] & 0xff);
+        }
+        return value;
+    }
+
+    /**
+     * Checks whether there is a dash at the position of the canonical form.
+     *
+     * @param index Position
+     * @return True for the dash positions
+     */
+    private static boolean isDash(int index) {
+        return index == 8 || index == 13 || index == 18 || index == 23;
+    }
+}
@@ -0,0 +1,302 @@
+package cz.avast.personalbudget.model;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+
+import cz.avast.personalbudget.entity.PeriodTotals;
+
+/**
+ * Totals of transactions per calendar day, week, month and year. Every change of a transaction updates one bucket of each period, so it takes constant time.
+ * Changed buckets are remembered until they are persisted. Day totals are also kept in a {@link BalanceIndex}, so the sum of all days before a day
+ * is one prefix query.
+ */
+public class PeriodRollups {
+
+    /**
+     * Number of milliseconds in a day
+     */
+    private static final long DAY = 24L * 60 * 60 * 1000;
+
+    /**
+     * Buckets of every period type by their start timestamp
+     */
+    private final Map<PeriodTotals.Period, Map<Long, PeriodTotals>> buckets = new EnumMap<PeriodTotals.Period, Map<Long, PeriodTotals>>(PeriodTotals.Period.class);
+
+    /**
+     * Buckets changed since the last call of {@link #takeChanged()}
+     */
+    private final Set<PeriodTotals> changed = new LinkedHashSet<PeriodTotals>();
+
+    /**
+     * Prefix sums of the day buckets by local day number
+     */
+    private final BalanceIndex dayIndex = new BalanceIndex();
+
+    /**
+     * Time zone of the period starts
+     */
+    private final TimeZone timeZone;
+
+    /**
+     * Calendar used for finding start of the periods
+     */
+    private final Calendar calendar;
+
+    /**
+     * Creates empty rollups. Buckets are keyed by local period starts, so persisted buckets can be loaded only into rollups of the same time zone.
+     *
+     * @param timeZone Time zone of the period starts
+     */
+    public PeriodRollups(TimeZone timeZone) {
+        this.timeZone = timeZone;
+        calendar = Calendar.getInstance(timeZone);
+        for (PeriodTotals.Period period : PeriodTotals.Period.values()) {
+            buckets.put(period, new HashMap<Long, PeriodTotals>());
+        }
+    }
+
+    /**
+     * Fills the rollups with persisted buckets. Current content is replaced.
+     *
+     * @param totals Persisted buckets
+     */
+    public void load(Collection<PeriodTotals> totals) {
+        clear();
+        for (PeriodTotals bucket : totals) {
+            buckets.get(bucket.getPeriod()).put(bucket.getStart(), bucket);
+            if (bucket.getPeriod() == PeriodTotals.Period.DAY) {
+                dayIndex.add(dayOf(bucket.getStart()), bucket.getNet());
+            }
+        }
+    }
+
+    /**
+     * Removes all buckets. Removed buckets are not reported as changed.
+     */
+    public void clear() {
+        for (Map<Long, PeriodTotals> periodBuckets : buckets.values()) {
+            periodBuckets.clear();
+        }
+        dayIndex.clear();
+        changed.clear();
+    }
+
+    /**
+     * Adds transaction value to the buckets of the date.
+     *
+     * @param date  Timestamp of the transaction
+     * @param value Value in minor currency units
+     */
+    public void add(long date, long value) {
+        update(date, value, 1);
+    }
+
+    /**
+     * Removes transaction value from the buckets of the date.
+     *
+     * @param date  Timestamp of the transaction
+     * @param value Value in minor currency units
+     */
+    public void remove(long date, long value) {
+        update(date, value, -1);
+    }
+
+    /**
+     * Returns totals of the period which contains the date.
+     *
+     * @param period Type of the period
+     * @param date   Timestamp
+     * @return Totals, empty totals if there is no transaction in the period
+     */
+    public PeriodTotals get(PeriodTotals.Period period, long date) {
+        long start = getPeriodStart(period, date);
+        PeriodTotals bucket = buckets.get(period).get(start);
+        return bucket != null ? bucket : new PeriodTotals(period, start);
+    }
+
+    /**
+     * Returns number of transactions in all buckets of the period type. Every transaction is counted once in every period type.
+     *
+     * @param period Type of the period
+     * @return Number of transactions
+     */
+    public int getCount(PeriodTotals.Period period) {
+        int count = 0;
+        for (PeriodTotals bucket : buckets.get(period).values()) {
+            count += bucket.getCount();
+        }
+        return count;
+    }
+
+    /**
+     * Returns sum of values in all buckets of the period type. It equals the balance if the rollups match the transactions.
+     *
+     * @param period Type of the period
+     * @return Net value in minor currency units
+     */
+    public long getNet(PeriodTotals.Period period) {
+        long net = 0;
+        for (PeriodTotals bucket : buckets.get(period).values()) {
+            net += bucket.getNet();
+        }
+        return net;
+    }
+
+    /**
+     * Returns sum of values of all transactions before the day. It is one prefix query over the day totals, so it takes O(log d) for d days of history.
+     *
+     * @param dayStart Start of the day, see {@link #getPeriodStart(PeriodTotals.Period, long)}
+     * @return Net value in minor currency units
+     */
+    public long getNetBefore(long dayStart) {
+        return dayIndex.sumBeforeDay(dayOf(dayStart));
+    }
+
+    /**
+     * Returns ID of the time zone of the period starts.
+     *
+     * @return Time zone ID
+     */
+    public String getTimeZoneId() {
+        return timeZone.getID();
+    }
+
+    /**
+     * Returns all buckets and forgets the changes, used when the rollups are rebuilt and have to be persisted completely.
+     *
+     * @return List of buckets
+     */
+    public List<PeriodTotals> takeAll() {
+        changed.clear();
+        List<PeriodTotals> result = new ArrayList<PeriodTotals>();
+        for (Map<Long, PeriodTotals> periodBuckets : buckets.values()) {
+            result.addAll(periodBuckets.values());
+        }
+        return result;
+    }
+
+    /**
+     * Returns buckets changed since the last call and forgets them. Buckets with no transaction left are removed from the rollups, but they are returned, so they can be removed from persistent storage too.
+     *
+     * @return List of changed buckets
+     */
+    public List<PeriodTotals> takeChanged() {
+        List<PeriodTotals> result = new ArrayList<PeriodTotals>(changed);
+        changed.clear();
+        return result;
+    }
+
+    /**
+     * Returns start of the period which contains the date.
+     *
+     * @param period Type of the period
+     * @param date   Timestamp
+     * @return Timestamp of the period start
+     */
+    public long getPeriodStart(PeriodTotals.Period period, long date) {
+        calendar.setTimeInMillis(date);
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        switch (period) {
+            case WEEK: {
+                int daysFromWeekStart = (calendar.get(Calendar.DAY_OF_WEEK) - calendar.getFirstDayOfWeek() + 7) % 7;
+                calendar.add(Calendar.DAY_OF_MONTH, -daysFromWeekStart);
+                break;
+            }
+            case MONTH: {
+                calendar.set(Calendar.DAY_OF_MONTH, 1);
+                break;
+            }
+            case YEAR: {
+                calendar.set(Calendar.DAY_OF_YEAR, 1);
+                break;
+            }
+            default: {
+                break;
+            }
+        }
+        return calendar.getTimeInMillis();
+    }
+
+    /**
+     * Returns start of the period after the period which starts at the given timestamp.
+     *
+     * @param period      Type of the period
+     * @param periodStart Timestamp of the period start
+     * @return Timestamp of the next period start
+     */
+    public long getNextPeriodStart(PeriodTotals.Period period, long periodStart) {
+        calendar.setTimeInMillis(periodStart);
+        switch (period) {
+            case WEEK: {
+                calendar.add(Calendar.WEEK_OF_YEAR, 1);
+                break;
+            }
+            case MONTH: {
+                calendar.add(Calendar.MONTH, 1);
+                break;
+            }
+            case YEAR: {
+                calendar.add(Calendar.YEAR, 1);
+                break;
+            }
+            default: {
+                calendar.add(Calendar.DAY_OF_MONTH, 1);
+                break;
+            }
+        }
+        return calendar.getTimeInMillis();
+    }
+
+    /**
+     * Returns number of the local day which contains the date. Local days are numbered continuously, so daylight saving changes do not make gaps.
+     *
+     * @param date Timestamp
+     * @return Number of local days since the epoch
+     */
+    private long dayOf(long date) {
+        long localDate = date + timeZone.getOffset(date);
+        long day = localDate / DAY;
+        // Division rounds towards zero, dates before the epoch have to be rounded down
+        if (localDate < 0 && day * DAY != localDate) {
+            day--;
+        }
+        return day;
+    }
+
+    /**
+     * Updates bucket of every period type which contains the date.
+     *
+     * @param date  Timestamp of the transaction
+     * @param value Value in minor currency units
+     * @param count 1 for adding, -1 for removing
+     */
+    private void update(long date, long value, int count) {
+        for (PeriodTotals.Period period : PeriodTotals.Period.values()) {
+            Map<Long, PeriodTotals> periodBuckets = buckets.get(period);
+            long start = getPeriodStart(period, date);
+
+            PeriodTotals bucket = periodBuckets.get(start);
+            if (bucket == null) {
+                bucket = new PeriodTotals(period, start);
+                periodBuckets.put(start, bucket);
+            }
+            bucket.add(value, count);
+            if (bucket.getCount() == 0) {
+                periodBuckets.remove(start);
+            }
+            changed.add(bucket);
+        }
+        dayIndex.add(dayOf(date), value * count);
+    }
+}
@@ -0,0 +1,129 @@
+package cz.avast.personalbudget.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import cz.avast.personalbudget.entity.Transaction;
+
+/**
+ * Ordered list of changes made by the user which are applied together by {@link cz.avast.personalbudget.DataModel#applyBatch(TransactionBatch)}.
+ * Every operation has the same meaning as the corresponding single change of the data model, but the whole batch is merged into the list,
+ * queued for sync and written to the database at once.
+ */
+public class TransactionBatch {
+
+    /**
+     * Type of the operation
+     */
+    public enum Type {
+        /**
+         * New transaction is created
+         */
+        CREATE,
+        /**
+         * Transaction is replaced by its new version
+         */
+        ALTER,
+        /**
+         * Transaction is removed from the list and marked for deletion
+         */
+        DELETE
+    }
+
+    /**
+     * Operations in the order they were added
+     */
+    private final List<Operation> operations = new ArrayList<Operation>();
+
+    /**
+     * Adds creation of a new transaction. GUID and flags of the transaction are set when the batch is applied.
+     *
+     * @param transaction New transaction
+     * @return This batch
+     */
+    public TransactionBatch create(Transaction transaction) {
+        operations.add(new Operation(Type.CREATE, null, transaction));
+        return this;
+    }
+
+    /**
+     * Adds change of the transaction. New transaction gets GUID of the old one when the batch is applied.
+     *
+     * @param oldTransaction Current transaction
+     * @param newTransaction New version of the transaction
+     * @return This batch
+     */
+    public TransactionBatch alter(Transaction oldTransaction, Transaction newTransaction) {
+        operations.add(new Operation(Type.ALTER, oldTransaction, newTransaction));
+        return this;
+    }
+
+    /**
+     * Adds deletion of the transaction.
+     *
+     * @param transaction Deleted transaction
+     * @return This batch
+     */
+    public TransactionBatch delete(Transaction transaction) {
+        operations.add(new Operation(Type.DELETE, transaction, null));
+        return this;
+    }
+
+    /**
+     * Returns operations of the batch.
+     *
+     * @return Unmodifiable list of operations in the order they were added
+     */
+    public List<Operation> getOperations() {
+        return Collections.unmodifiableList(operations);
+    }
+
+    /**
+     * Returns number of operations.
+     *
+     * @return Number of operations
+     */
+    public int size() {
+        return operations.size();
+    }
+
+    /**
+     * One operation of the batch
+     */
+    public static class Operation {
+
+        /**
+         * Type of the operation
+         */
+        private final Type type;
+
+        /**
+         * Current transaction, null for creation
+         */
+        private final Transaction oldTransaction;
+
+        /**
+         * New version of the transaction, null for deletion
+         */
+        private final Transaction newTransaction;
+
+        Operation(Type type, Transaction oldTransaction, Transaction newTransaction) {
+            this.type = type;
+            this.oldTransaction = oldTransaction;
+            this.newTransaction = newTransaction;
+        }
+
+        public Type getType() {
+            return type;
+        }
+
+        public Transaction getOldTransaction() {
+            return oldTransaction;
+        }
+
+        public Transaction getNewTransaction() {
+            return newTransaction;
+        }
+    }
+}
@@ -0,0 +1,997 @@
+package cz.avast.personalbudget.model;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+import cz.avast.personalbudget.entity.Transaction;
+
+/**
+ * List of transactions stored in chunks of limited size. The list is modified by a single writer and {@link #freeze()} publishes an immutable view of it.
+ * Frozen chunks are shared by the view and the list, a chunk is copied only when the writer modifies it again, so publishing a view
+ * and a following single change take O(n / chunk size + chunk size) instead of copying the whole list.
+ * <p/>
+ * Transactions are not kept as objects. Chunks store them in primitive columns (dates, values, kind ids from {@link KindDictionary}, flags
+ * and GUIDs packed by {@link PackedGuid}) and {@link #get(int)} creates a detached transaction from the columns. The list takes a fraction
+ * of the memory of the objects and gives the garbage collector almost nothing to trace.
+ */
+public class TransactionList extends AbstractList<Transaction> implements RandomAccess {
+
+    /**
+     * Maximal number of transactions in a chunk. Full chunk is split in halves before the next insert.
+     */
+    private static final int MAX_CHUNK_SIZE = 512;
+
+    /**
+     * Chunks smaller than this are merged with the next chunk if possible.
+     */
+    private static final int MIN_CHUNK_SIZE = MAX_CHUNK_SIZE / 4;
+
+    /**
+     * Flag of a transaction marked as deleted
+     */
+    private static final byte FLAG_DELETED = 1;
+
+    /**
+     * Flag of a transaction pending for sync
+     */
+    private static final byte FLAG_PENDING = 2;
+
+    /**
+     * Flag of a transaction with GUID which cannot be packed, the GUID is stored as text
+     */
+    private static final byte FLAG_TEXT_GUID = 4;
+
+    /**
+     * Dictionary of the transaction kinds
+     */
+    private final KindDictionary kinds;
+
+    /**
+     * Chunks of the list. Only first chunkCount of them are used.
+     */
+    private Chunk[] chunks = new Chunk[8];
+
+    /**
+     * Index of the first transaction of every chunk
+     */
+    private int[] starts = new int[8];
+
+    /**
+     * Number of used chunks
+     */
+    private int chunkCount;
+
+    /**
+     * Number of transactions in the list
+     */
+    private int size;
+
+    /**
+     * TransactionList constructor
+     *
+     * @param kinds Dictionary of the transaction kinds
+     */
+    public TransactionList(KindDictionary kinds) {
+        this.kinds = kinds;
+    }
+
+    @Override
+    public Transaction get(int index) {
+        checkIndex(index, size);
+        int chunk = chunkOf(starts, chunkCount, index);
+        return chunks[chunk].get(index - starts[chunk], kinds.getNames());
+    }
+
+    /**
+     * Returns date of the transaction at the index without creating the transaction.
+     *
+     * @param index Index of the transaction
+     * @return Timestamp
+     */
+    public long getDate(int index) {
+        checkIndex(index, size);
+        int chunk = chunkOf(starts, chunkCount, index);
+        return chunks[chunk].dates[index - starts[chunk]];
+    }
+
+    /**
+     * Returns value of the transaction at the index without creating the transaction.
+     *
+     * @param index Index of the transaction
+     * @return Value in minor currency units
+     */
+    public long getValue(int index) {
+        checkIndex(index, size);
+        int chunk = chunkOf(starts, chunkCount, index);
+        return chunks[chunk].values[index - starts[chunk]];
+    }
+
+    /**
+     * Returns kind id of the transaction at the index without creating the transaction.
+     *
+     * @param index Index of the transaction
+     * @return Id of the kind in the kind dictionary
+     */
+    public int getKindId(int index) {
+        checkIndex(index, size);
+        int chunk = chunkOf(starts, chunkCount, index);
+        return chunks[chunk].kindIds[index - starts[chunk]];
+    }
+
+    /**
+     * Returns GUID of the transaction at the index without creating the transaction.
+     *
+     * @param index Index of the transaction
+     * @return GUID
+     */
+    public String getGuid(int index) {
+        checkIndex(index, size);
+        int chunk = chunkOf(starts, chunkCount, index);
+        return chunks[chunk].getGuid(index - starts[chunk]);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Transaction set(int index, Transaction transaction) {
+        checkIndex(index, size);
+        int chunkIndex = chunkOf(starts, chunkCount, index);
+        Chunk chunk = writableChunk(chunkIndex);
+        int position = index - starts[chunkIndex];
+
+        Transaction old = chunk.get(position, kinds.getNames());
+        chunk.sum += transaction.getValue() - chunk.values[position];
+        chunk.set(position, transaction, kinds);
+        return old;
+    }
+
+    @Override
+    public void add(int index, Transaction transaction) {
+        checkIndex(index, size + 1);
+        if (chunkCount == 0) {
+            insertChunk(0, new Chunk(1));
+            starts[0] = 0;
+        }
+
+        // Index equal to the size belongs to the last chunk
+        int chunkIndex = index == size ? chunkCount - 1 : chunkOf(starts, chunkCount, index);
+        if (chunks[chunkIndex].size == MAX_CHUNK_SIZE) {
+            splitChunk(chunkIndex);
+            if (index >= starts[chunkIndex + 1]) {
+                chunkIndex++;
+            }
+        }
+        Chunk chunk = writableChunk(chunkIndex);
+        int position = index - starts[chunkIndex];
+
+        chunk.ensureCapacity(chunk.size + 1);
+        chunk.move(position, position + 1, chunk.size - position);
+        chunk.set(position, transaction, kinds);
+        chunk.size++;
+        chunk.sum += transaction.getValue();
+        size++;
+        shiftStarts(chunkIndex + 1, 1);
+        modCount++;
+    }
+
+    @Override
+    public Transaction remove(int index) {
+        checkIndex(index, size);
+        int chunkIndex = chunkOf(starts, chunkCount, index);
+        Chunk chunk = writableChunk(chunkIndex);
+        int position = index - starts[chunkIndex];
+
+        Transaction old = chunk.get(position, kinds.getNames());
+        chunk.sum -= chunk.values[position];
+        chunk.move(position + 1, position, chunk.size - position - 1);
+        chunk.size--;
+        chunk.clearText(chunk.size);
+        size--;
+        shiftStarts(chunkIndex + 1, -1);
+
+        if (chunk.size == 0) {
+            removeChunk(chunkIndex);
+        } else if (chunk.size < MIN_CHUNK_SIZE) {
+            if (chunkIndex + 1 < chunkCount) {
+                mergeChunks(chunkIndex);
+            } else if (chunkIndex > 0) {
+                mergeChunks(chunkIndex - 1);
+            }
+        }
+        modCount++;
+        return old;
+    }
+
+    /**
+     * Removes transactions from the index to the end of the list. Following chunks are dropped whole, so it takes O(number of chunks + chunk size).
+     *
+     * @param fromIndex Index of the first removed transaction
+     */
+    public void removeFrom(int fromIndex) {
+        checkIndex(fromIndex, size + 1);
+        if (fromIndex == size) {
+            return;
+        }
+        int chunkIndex = chunkOf(starts, chunkCount, fromIndex);
+        int position = fromIndex - starts[chunkIndex];
+        for (int i = position == 0 ? chunkIndex : chunkIndex + 1; i < chunkCount; i++) {
+            chunks[i] = null;
+        }
+
+        if (position == 0) {
+            chunkCount = chunkIndex;
+        } else {
+            chunkCount = chunkIndex + 1;
+            Chunk chunk = writableChunk(chunkIndex);
+            for (int i = position; i < chunk.size; i++) {
+                chunk.sum -= chunk.values[i];
+                chunk.clearText(i);
+            }
+            chunk.size = position;
+            if (chunk.size < MIN_CHUNK_SIZE && chunkIndex > 0) {
+                mergeChunks(chunkIndex - 1);
+            }
+        }
+        size = fromIndex;
+        modCount++;
+    }
+
+    @Override
+    public void clear() {
+        chunks = new Chunk[8];
+        starts = new int[8];
+        chunkCount = 0;
+        size = 0;
+        modCount++;
+    }
+
+    /**
+     * Replaces content of the list with the transactions. Chunks are built from scratch, so it takes linear time.
+     *
+     * @param transactions New content of the list
+     */
+    public void setAll(List<Transaction> transactions) {
+        Builder builder = new Builder(transactions.size());
+        for (Transaction transaction : transactions) {
+            builder.add(transaction);
+        }
+        builder.finish();
+    }
+
+    /**
+     * Finds the transaction in the list sorted from the newest, transactions with the same date are sorted by GUID. Transactions are not created during the search.
+     *
+     * @param date Date of the transaction
+     * @param guid GUID of the transaction
+     * @return Index of the transaction if it is in the list, otherwise (-(insertion point) - 1) like {@link java.util.Collections#binarySearch(List, Object, java.util.Comparator)}
+     */
+    public int binarySearch(long date, String guid) {
+        boolean packed = PackedGuid.isPackable(guid);
+        long high = packed ? PackedGuid.high(guid) : 0;
+        long low = packed ? PackedGuid.low(guid) : 0;
+
+        int lowIndex = 0;
+        int highIndex = size - 1;
+        while (lowIndex <= highIndex) {
+            int middle = (lowIndex + highIndex) >>> 1;
+            int chunkIndex = chunkOf(starts, chunkCount, middle);
+            int result = chunks[chunkIndex].compare(middle - starts[chunkIndex], date, guid, packed, high, low);
+            if (result < 0) {
+                lowIndex = middle + 1;
+            } else if (result > 0) {
+                highIndex = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -(lowIndex + 1);
+    }
+
+    /**
+     * Removes transactions at the indexes and merges sorted transactions into the sorted list in one pass. Chunks are built from scratch,
+     * the kept transactions are copied column by column, so it takes linear time and creates no transactions.
+     *
+     * @param removedIndexes Indexes of the removed transactions in ascending order
+     * @param transactions   Transactions sorted the same way as the list, none of them can be in the list after the removal
+     */
+    public void merge(int[] removedIndexes, List<Transaction> transactions) {
+        if (removedIndexes.length == 0 && transactions.isEmpty()) {
+            return;
+        }
+        Builder builder = new Builder(size - removedIndexes.length + transactions.size());
+
+        int removed = 0;
+        int inserted = 0;
+        Transaction next = null;
+        boolean packed = false;
+        long high = 0;
+        long low = 0;
+        for (int chunkIndex = 0; chunkIndex < chunkCount; chunkIndex++) {
+            Chunk chunk = chunks[chunkIndex];
+            for (int position = 0; position < chunk.size; position++) {
+                if (removed < removedIndexes.length && removedIndexes[removed] == starts[chunkIndex] + position) {
+                    removed++;
+                    continue;
+                }
+
+                // Add the merged transactions which belong before the kept one
+                while (inserted < transactions.size()) {
+                    if (next == null) {
+                        next = transactions.get(inserted);
+                        packed = PackedGuid.isPackable(next.getGuid());
+                        high = packed ? PackedGuid.high(next.getGuid()) : 0;
+                        low = packed ? PackedGuid.low(next.getGuid()) : 0;
+                    }
+                    if (chunk.compare(position, next.getDate(), next.getGuid(), packed, high, low) < 0) {
+                        break;
+                    }
+                    builder.add(next);
+                    inserted++;
+                    next = null;
+                }
+                builder.add(chunk, position);
+            }
+        }
+        while (inserted < transactions.size()) {
+            builder.add(transactions.get(inserted++));
+        }
+        builder.finish();
+    }
+
+    /**
+     * Returns immutable view of the current content. All chunks are marked as frozen, the writer copies them before the next change.
+     *
+     * @return Immutable list of transactions
+     */
+    public Frozen freeze() {
+        Chunk[] frozenChunks = new Chunk[chunkCount];
+        int[] frozenStarts = new int[chunkCount];
+        long[] sumsFrom = new long[chunkCount + 1];
+        for (int i = chunkCount - 1; i >= 0; i--) {
+            chunks[i].frozen = true;
+            frozenChunks[i] = chunks[i];
+            frozenStarts[i] = starts[i];
+            sumsFrom[i] = sumsFrom[i + 1] + chunks[i].sum;
+        }
+        return new Frozen(frozenChunks, frozenStarts, sumsFrom, size, kinds.getNames());
+    }
+
+    /**
+     * Returns chunk which can be modified. Frozen chunk is replaced with its copy.
+     *
+     * @param chunkIndex Index of the chunk
+     * @return Writable chunk
+     */
+    private Chunk writableChunk(int chunkIndex) {
+        Chunk chunk = chunks[chunkIndex];
+        if (chunk.frozen) {
+            chunk = chunk.copy();
+            chunks[chunkIndex] = chunk;
+        }
+        return chunk;
+    }
+
+    /**
+     * Splits full chunk into two halves. The second half gets a new chunk with room for a few inserts.
+     *
+     * @param chunkIndex Index of the chunk
+     */
+    private void splitChunk(int chunkIndex) {
+        Chunk chunk = writableChunk(chunkIndex);
+        int half = chunk.size / 2;
+        Chunk second = new Chunk(chunk.size - half + 1);
+        chunk.copyTo(half, second, 0, chunk.size - half);
+        second.size = chunk.size - half;
+        for (int i = 0; i < second.size; i++) {
+            second.sum += second.values[i];
+        }
+        for (int i = half; i < chunk.size; i++) {
+            chunk.clearText(i);
+        }
+        chunk.size = half;
+        chunk.sum -= second.sum;
+
+        insertChunk(chunkIndex + 1, second);
+        starts[chunkIndex + 1] = starts[chunkIndex] + half;
+    }
+
+    /**
+     * Merges the chunk with the next one if they fit together into one chunk.
+     *
+     * @param chunkIndex Index of the first chunk
+     */
+    private void mergeChunks(int chunkIndex) {
+        Chunk next = chunks[chunkIndex + 1];
+        if (chunks[chunkIndex].size + next.size > MAX_CHUNK_SIZE) {
+            return;
+        }
+        Chunk chunk = writableChunk(chunkIndex);
+        chunk.ensureCapacity(chunk.size + next.size);
+        next.copyTo(0, chunk, chunk.size, next.size);
+        chunk.size += next.size;
+        chunk.sum += next.sum;
+        removeChunk(chunkIndex + 1);
+    }
+
+    /**
+     * Inserts chunk to the chunk array. Start of the inserted chunk has to be set by the caller.
+     *
+     * @param chunkIndex Index of the chunk
+     * @param chunk      New chunk
+     */
+    private void insertChunk(int chunkIndex, Chunk chunk) {
+        if (chunkCount == chunks.length) {
+            Chunk[] newChunks = new Chunk[chunks.length * 2];
+            int[] newStarts = new int[chunks.length * 2];
+            System.arraycopy(chunks, 0, newChunks, 0, chunkCount);
+            System.arraycopy(starts, 0, newStarts, 0, chunkCount);
+            chunks = newChunks;
+            starts = newStarts;
+        }
+        System.arraycopy(chunks, chunkIndex, chunks, chunkIndex + 1, chunkCount - chunkIndex);
+        System.arraycopy(starts, chunkIndex, starts, chunkIndex + 1, chunkCount - chunkIndex);
+        chunks[chunkIndex] = chunk;
+        chunkCount++;
+    }
+
+    /**
+     * Removes chunk from the chunk array. Transactions of the chunk have to be already removed or moved.
+     *
+     * @param chunkIndex Index of the chunk
+     */
+    private void removeChunk(int chunkIndex) {
+        System.arraycopy(chunks, chunkIndex + 1, chunks, chunkIndex, chunkCount - chunkIndex - 1);
+        System.arraycopy(starts, chunkIndex + 1, starts, chunkIndex, chunkCount - chunkIndex - 1);
+        chunkCount--;
+        chunks[chunkCount] = null;
+    }
+
+    /**
+     * Moves start of every chunk from the given one.
+     *
+     * @param fromChunk First chunk to move
+     * @param delta     Number of positions to move by
+     */
+    private void shiftStarts(int fromChunk, int delta) {
+        for (int i = fromChunk; i < chunkCount; i++) {
+            starts[i] += delta;
+        }
+    }
+
+    /**
+     * Finds chunk which contains the index.
+     *
+     * @param starts     Starts of the chunks
+     * @param chunkCount Number of chunks
+     * @param index      Index of a transaction
+     * @return Index of the chunk
+     */
+    private static int chunkOf(int[] starts, int chunkCount, int index) {
+        int low = 0;
+        int high = chunkCount - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (starts[middle] <= index) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Checks that the index is in range.
+     *
+     * @param index Index
+     * @param limit Exclusive upper limit
+     */
+    private static void checkIndex(int index, int limit) {
+        if (index < 0 || index >= limit) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + limit);
+        }
+    }
+
+    /**
+     * Builds new content of the list from scratch. Chunks are filled completely and the last one is allocated only as large as needed.
+     */
+    private class Builder {
+
+        /**
+         * Number of transactions which will be added
+         */
+        private final int expectedSize;
+
+        /**
+         * New chunks
+         */
+        private Chunk[] newChunks = new Chunk[8];
+
+        /**
+         * Starts of the new chunks
+         */
+        private int[] newStarts = new int[8];
+
+        /**
+         * Number of new chunks
+         */
+        private int newChunkCount;
+
+        /**
+         * Number of added transactions
+         */
+        private int newSize;
+
+        /**
+         * Chunk which is being filled
+         */
+        private Chunk current;
+
+        /**
+         * Builder constructor
+         *
+         * @param expectedSize Number of transactions which will be added
+         */
+        Builder(int expectedSize) {
+            this.expectedSize = expectedSize;
+        }
+
+        /**
+         * Adds transaction to the end.
+         *
+         * @param transaction Transaction
+         */
+        void add(Transaction transaction) {
+            Chunk chunk = currentChunk();
+            chunk.set(chunk.size, transaction, kinds);
+            chunk.sum += transaction.getValue();
+            chunk.size++;
+            newSize++;
+        }
+
+        /**
+         * Adds transaction from a chunk of the current content to the end.
+         *
+         * @param source   Chunk with the transaction
+         * @param position Position of the transaction in the chunk
+         */
+        void add(Chunk source, int position) {
+            Chunk chunk = currentChunk();
+            source.copyTo(position, chunk, chunk.size, 1);
+            chunk.sum += source.values[position];
+            chunk.size++;
+            newSize++;
+        }
+
+        /**
+         * Replaces content of the list with the added transactions.
+         */
+        void finish() {
+            chunks = newChunks;
+            starts = newStarts;
+            chunkCount = newChunkCount;
+            size = newSize;
+            modCount++;
+        }
+
+        /**
+         * Returns chunk with free space, starts new one when the current chunk is full. New chunk has room for the rest of the expected transactions, at most for a full chunk.
+         *
+         * @return Chunk
+         */
+        private Chunk currentChunk() {
+            if (current == null || current.size == current.dates.length) {
+                current = new Chunk(Math.max(1, Math.min(MAX_CHUNK_SIZE, expectedSize - newSize)));
+                if (newChunkCount == newChunks.length) {
+                    Chunk[] grownChunks = new Chunk[newChunks.length * 2];
+                    int[] grownStarts = new int[newChunks.length * 2];
+                    System.arraycopy(newChunks, 0, grownChunks, 0, newChunkCount);
+                    System.arraycopy(newStarts, 0, grownStarts, 0, newChunkCount);
+                    newChunks = grownChunks;
+                    newStarts = grownStarts;
+                }
+                newChunks[newChunkCount] = current;
+                newStarts[newChunkCount] = newSize;
+                newChunkCount++;
+            }
+            return current;
+        }
+    }
+
+    /**
+     * Part of the list with transactions stored in columns. Once frozen, the chunk is never modified.
+     */
+    private static class Chunk {
+
+        /**
+         * Dates of the transactions, only first size of them are used (the same for the other columns). Length of the columns is the capacity of the chunk.
+         */
+        long[] dates;
+
+        /**
+         * Values of the transactions in minor currency units
+         */
+        long[] values;
+
+        /**
+         * Kind ids of the transactions
+         */
+        int[] kindIds;
+
+        /**
+         * High parts of the packed GUIDs
+         */
+        long[] guidHighs;
+
+        /**
+         * Low parts of the packed GUIDs
+         */
+        long[] guidLows;
+
+        /**
+         * Flags of the transactions
+         */
+        byte[] flags;
+
+        /**
+         * GUIDs which cannot be packed, allocated when the first such GUID is stored
+         */
+        String[] textGuids;
+
+        /**
+         * Number of transactions in the chunk
+         */
+        int size;
+
+        /**
+         * Sum of values of the transactions in the chunk
+         */
+        long sum;
+
+        /**
+         * Whether the chunk is shared with an immutable view
+         */
+        boolean frozen;
+
+        /**
+         * Sum of the value at every position and all values after it in the chunk. It is computed by the first running balance query of a frozen chunk,
+         * which is never modified, so the sums stay valid.
+         */
+        private volatile long[] sumsFrom;
+
+        /**
+         * Creates empty chunk.
+         *
+         * @param capacity Number of transactions the columns are allocated for
+         */
+        Chunk(int capacity) {
+            dates = new long[capacity];
+            values = new long[capacity];
+            kindIds = new int[capacity];
+            guidHighs = new long[capacity];
+            guidLows = new long[capacity];
+            flags = new byte[capacity];
+        }
+
+        /**
+         * Grows the columns if they cannot hold the number of transactions. Capacity grows by half, at most to the maximal chunk size.
+         *
+         * @param capacity Required number of transactions
+         */
+        void ensureCapacity(int capacity) {
+            if (capacity <= dates.length) {
+                return;
+            }
+            int newCapacity = Math.min(MAX_CHUNK_SIZE, Math.max(capacity, dates.length + dates.length / 2));
+            dates = Arrays.copyOf(dates, newCapacity);
+            values = Arrays.copyOf(values, newCapacity);
+            kindIds = Arrays.copyOf(kindIds, newCapacity);
+            guidHighs = Arrays.copyOf(guidHighs, newCapacity);
+            guidLows = Arrays.copyOf(guidLows, newCapacity);
+            flags = Arrays.copyOf(flags, newCapacity);
+            if (textGuids != null) {
+                textGuids = Arrays.copyOf(textGuids, newCapacity);
+            }
+        }
+
+        /**
+         * Stores the transaction at the position. Size and sum are not changed.
+         *
+         * @param position    Position in the chunk
+         * @param transaction Transaction
+         * @param kinds       Dictionary of the transaction kinds
+         */
+        void set(int position, Transaction transaction, KindDictionary kinds) {
+            dates[position] = transaction.getDate();
+            values[position] = transaction.getValue();
+            kindIds[position] = transaction.getKindId() != Transaction.NO_KIND_ID ? transaction.getKindId() : kinds.getId(transaction.getKind());
+
+            byte flag = 0;
+            if (transaction.isDeleted()) {
+                flag |= FLAG_DELETED;
+            }
+            if (transaction.isPending()) {
+                flag |= FLAG_PENDING;
+            }
+
+            String guid = transaction.getGuid();
+            if (PackedGuid.isPackable(guid)) {
+                guidHighs[position] = PackedGuid.high(guid);
+                guidLows[position] = PackedGuid.low(guid);
+                clearText(position);
+            } else {
+                flag |= FLAG_TEXT_GUID;
+                if (textGuids == null) {
+                    textGuids = new String[dates.length];
+                }
+                textGuids[position] = guid;
+            }
+            flags[position] = flag;
+        }
+
+        /**
+         * Creates detached transaction from the columns.
+         *
+         * @param position  Position in the chunk
+         * @param kindNames Kinds by their id
+         * @return New transaction
+         */
+        Transaction get(int position, String[] kindNames) {
+            Transaction transaction = new Transaction();
+            transaction.setGuid(getGuid(position));
+            transaction.setValue(values[position]);
+            transaction.setDate(dates[position]);
+            transaction.setKind(kindNames[kindIds[position]], kindIds[position]);
+            transaction.setDeleted((flags[position] & FLAG_DELETED) != 0);
+            transaction.setPending((flags[position] & FLAG_PENDING) != 0);
+            return transaction;
+        }
+
+        /**
+         * Returns GUID of the transaction at the position.
+         *
+         * @param position Position in the chunk
+         * @return GUID
+         */
+        String getGuid(int position) {
+            if ((flags[position] & FLAG_TEXT_GUID) != 0) {
+                return textGuids[position];
+            }
+            return PackedGuid.toString(guidHighs[position], guidLows[position]);
+        }
+
+        /**
+         * Compares the transaction at the position with the given one in the order of the list (from the newest, then by
+         * {@link PackedGuid#compareGuids(String, String)}).
+         *
+         * @param position Position in the chunk
+         * @param date     Date of the other transaction
+         * @param guid     GUID of the other transaction
+         * @param packed   Whether the other GUID is packed
+         * @param high     High part of the other packed GUID
+         * @param low      Low part of the other packed GUID
+         * @return Negative if the transaction at the position belongs before the other one, positive if after it, zero for the same transaction
+         */
+        int compare(int position, long date, String guid, boolean packed, long high, long low) {
+            if (dates[position] != date) {
+                return dates[position] > date ? -1 : 1;
+            }
+            boolean text = (flags[position] & FLAG_TEXT_GUID) != 0;
+            if (text == packed) {
+                // Text GUIDs go before packed ones like in the database
+                return text ? -1 : 1;
+            }
+            if (packed) {
+                return PackedGuid.compare(guidHighs[position], guidLows[position], high, low);
+            }
+            return getGuid(position).compareTo(guid);
+        }
+
+        /**
+         * Moves transactions inside the chunk. Size and sum are not changed.
+         *
+         * @param from  First position to move
+         * @param to    New position of the first transaction
+         * @param count Number of transactions
+         */
+        void move(int from, int to, int count) {
+            copyTo(from, this, to, count);
+        }
+
+        /**
+         * Copies transactions to another chunk. Size and sum of the other chunk are not changed.
+         *
+         * @param from        First position to copy
+         * @param destination Chunk to copy to
+         * @param to          Position of the first transaction in the other chunk
+         * @param count       Number of transactions
+         */
+        void copyTo(int from, Chunk destination, int to, int count) {
+            System.arraycopy(dates, from, destination.dates, to, count);
+            System.arraycopy(values, from, destination.values, to, count);
+            System.arraycopy(kindIds, from, destination.kindIds, to, count);
+            System.arraycopy(guidHighs, from, destination.guidHighs, to, count);
+            System.arraycopy(guidLows, from, destination.guidLows, to, count);
+            System.arraycopy(flags, from, destination.flags, to, count);
+            if (textGuids != null) {
+                if (destination.textGuids == null) {
+                    destination.textGuids = new String[destination.dates.length];
+                }
+                System.arraycopy(textGuids, from, destination.textGuids, to, count);
+            } else if (destination.textGuids != null) {
+                for (int i = to; i < to + count; i++) {
+                    destination.textGuids[i] = null;
+                }
+            }
+        }
+
+        /**
+         * Returns sum of the value at the position and all values after it in the chunk. The chunk has to be frozen.
+         *
+         * @param position Position in the chunk
+         * @return Sum in minor currency units
+         */
+        long sumFrom(int position) {
+            long[] sums = sumsFrom;
+            if (sums == null) {
+                // Readers of a snapshot may compute the sums at the same time, they get equal arrays
+                sums = new long[size];
+                long sum = 0;
+                for (int i = size - 1; i >= 0; i--) {
+                    sum += values[i];
+                    sums[i] = sum;
+                }
+                sumsFrom = sums;
+            }
+            return sums[position];
+        }
+
+        /**
+         * Releases text GUID at the position.
+         *
+         * @param position Position in the chunk
+         */
+        void clearText(int position) {
+            if (textGuids != null) {
+                textGuids[position] = null;
+            }
+        }
+
+        /**
+         * Creates writable copy of the chunk with the same capacity.
+         *
+         * @return New chunk
+         */
+        Chunk copy() {
+            Chunk chunk = new Chunk(dates.length);
+            copyTo(0, chunk, 0, size);
+            chunk.size = size;
+            chunk.sum = sum;
+            return chunk;
+        }
+    }
+
+    /**
+     * Immutable view of the list at the moment it was frozen. It can be read from any thread.
+     */
+    public static class Frozen extends AbstractList<Transaction> implements RandomAccess {
+
+        /**
+         * Shared frozen chunks
+         */
+        private final Chunk[] chunks;
+
+        /**
+         * Index of the first transaction of every chunk
+         */
+        private final int[] starts;
+
+        /**
+         * Sum of values of every chunk and all chunks after it
+         */
+        private final long[] sumsFrom;
+
+        /**
+         * Number of transactions in the list
+         */
+        private final int size;
+
+        /**
+         * Kinds by their id, entries used by the frozen chunks do not change anymore
+         */
+        private final String[] kindNames;
+
+        private Frozen(Chunk[] chunks, int[] starts, long[] sumsFrom, int size, String[] kindNames) {
+            this.chunks = chunks;
+            this.starts = starts;
+            this.sumsFrom = sumsFrom;
+            this.size = size;
+            this.kindNames = kindNames;
+        }
+
+        @Override
+        public Transaction get(int index) {
+            checkIndex(index, size);
+            int chunk = chunkOf(starts, chunks.length, index);
+            return chunks[chunk].get(index - starts[chunk], kindNames);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        /**
+         * Returns date of the transaction without creating it.
+         *
+         * @param index Index of the transaction
+         * @return Date of the transaction
+         */
+        public long getDate(int index) {
+            checkIndex(index, size);
+            int chunk = chunkOf(starts, chunks.length, index);
+            return chunks[chunk].dates[index - starts[chunk]];
+        }
+
+        /**
+         * Finds the first transaction not newer than the date. The list is sorted from the newest, so binary search is used.
+         *
+         * @param date Timestamp
+         * @return Index of the transaction, size of the list if all transactions are newer
+         */
+        public int firstIndexNotNewerThan(long date) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (getDate(middle) > date) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+
+        /**
+         * Returns sum of values of the transactions in the index range.
+         *
+         * @param fromIndex The first index (inclusive)
+         * @param toIndex   The last index (exclusive)
+         * @return Sum in minor currency units
+         */
+        public long getSum(int fromIndex, int toIndex) {
+            if (fromIndex >= toIndex) {
+                return 0;
+            }
+            return sumFrom(fromIndex) - (toIndex < size ? sumFrom(toIndex) : 0);
+        }
+
+        /**
+         * Returns sum of values of all transactions in the list.
+         *
+         * @return Sum in minor currency units
+         */
+        public long getSum() {
+            return sumsFrom[0];
+        }
+
+        /**
+         * Returns sum of values of the transaction at the index and all transactions after it. The list is sorted from the newest,
+         * so it is the balance right after the transaction. Takes O(log(number of chunks)), the first query of a chunk sums it once.
+         *
+         * @param index Index of the transaction
+         * @return Sum in minor currency units
+         */
+        public long sumFrom(int index) {
+            checkIndex(index, size);
+            int chunkIndex = chunkOf(starts, chunks.length, index);
+            return sumsFrom[chunkIndex + 1] + chunks[chunkIndex].sumFrom(index - starts[chunkIndex]);
+        }
+    }
+}
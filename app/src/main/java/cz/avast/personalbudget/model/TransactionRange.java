@@ -0,0 +1,147 @@
+package cz.avast.personalbudget.model;
+
+import java.util.Collections;
+import java.util.List;
+
+import cz.avast.personalbudget.entity.Transaction;
+
+/**
+ * Transactions of a snapshot in the date range [from, to). The transactions are a view of the snapshot's list, nothing is copied,
+ * and the sum is calculated from the precomputed sums of the list.
+ */
+public class TransactionRange {
+
+    /**
+     * Start of the range (inclusive)
+     */
+    private final long from;
+
+    /**
+     * End of the range (exclusive)
+     */
+    private final long to;
+
+    /**
+     * Index of the newest transaction of the range in the snapshot's list
+     */
+    private final int startIndex;
+
+    /**
+     * Transactions of the range sorted from the newest
+     */
+    private final List<Transaction> transactions;
+
+    /**
+     * Sum of values of the transactions in minor currency units
+     */
+    private final long sum;
+
+    /**
+     * Whether all transactions of the range are loaded
+     */
+    private final boolean complete;
+
+    /**
+     * Finds transactions in the date range by binary search, takes O(log n).
+     *
+     * @param list     Frozen list of the snapshot
+     * @param from     Start of the range (inclusive)
+     * @param to       End of the range (exclusive)
+     * @param complete Whether the list contains all transactions
+     */
+    TransactionRange(TransactionList.Frozen list, long from, long to, boolean complete) {
+        this.from = from;
+        this.to = to;
+        this.startIndex = indexBefore(list, to);
+        int endIndex = Math.max(startIndex, indexBefore(list, from));
+        this.transactions = list.subList(startIndex, endIndex);
+        this.sum = list.getSum(startIndex, endIndex);
+        // Transactions older than the loaded ones can be still in the range, unless the oldest loaded one is before it
+        this.complete = complete || from >= to || endIndex < list.size();
+    }
+
+    /**
+     * Creates range of transactions which are not a part of a snapshot, e.g. read from the database. The range is complete.
+     *
+     * @param transactions Transactions of the range sorted from the newest
+     * @param from         Start of the range (inclusive)
+     * @param to           End of the range (exclusive)
+     */
+    public TransactionRange(List<Transaction> transactions, long from, long to) {
+        this.from = from;
+        this.to = to;
+        this.startIndex = -1;
+        this.transactions = Collections.unmodifiableList(transactions);
+        long sum = 0;
+        for (Transaction transaction : transactions) {
+            sum += transaction.getValue();
+        }
+        this.sum = sum;
+        this.complete = true;
+    }
+
+    public long getFrom() {
+        return from;
+    }
+
+    public long getTo() {
+        return to;
+    }
+
+    /**
+     * Returns index of the newest transaction of the range in the snapshot's list, e.g. for running balance.
+     *
+     * @return Index in the snapshot's list, -1 if the range is not a part of a snapshot
+     */
+    public int getStartIndex() {
+        return startIndex;
+    }
+
+    /**
+     * Returns transactions of the range. The list is a view of the snapshot's list, it cannot be modified.
+     *
+     * @return Transactions sorted from the newest
+     */
+    public List<Transaction> getTransactions() {
+        return transactions;
+    }
+
+    /**
+     * Returns number of transactions in the range.
+     *
+     * @return Number of transactions
+     */
+    public int size() {
+        return transactions.size();
+    }
+
+    /**
+     * Returns sum of values of the transactions in the range.
+     *
+     * @return Sum in minor currency units
+     */
+    public long getSum() {
+        return sum;
+    }
+
+    /**
+     * Finds the first transaction older than the date.
+     *
+     * @param list Frozen list sorted from the newest
+     * @param date Timestamp
+     * @return Index of the transaction, size of the list if there is no such transaction
+     */
+    private static int indexBefore(TransactionList.Frozen list, long date) {
+        return date == Long.MIN_VALUE ? list.size() : list.firstIndexNotNewerThan(date - 1);
+    }
+
+    /**
+     * Returns whether all transactions of the range are loaded. Ranges from {@link cz.avast.personalbudget.DataModel#getTransactionsInRange(long, long)} are always complete, ranges
+     * which are not loaded are read from the database.
+     *
+     * @return True if no transaction of the range is missing
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+}